@@ -0,0 +1,100 @@
+package org.kloeckner.maven.plugin;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.kloeckner.maven.plugin.util.ReactorResolutionCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Resolves a few rules against a fast and a slow repository, in a single request per artifact and hedged.
+ * <p>
+ * The latency estimates live in the reactor cache, which every invocation starts with afresh, so the slow repository
+ * is asked every time and hedging wins through the deadline alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class HedgedResolutionBenchmark {
+
+	private static final int RULES = 4;
+
+	/** delay of the slow repository in milliseconds */
+	@Param({ "100" })
+	public long slowDelay;
+
+	private VersionRange plain;
+
+	private VersionRange hedged;
+
+	private List<String> rules;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		StubRepositorySystem repoSystem = new StubRepositorySystem(50);
+		repoSystem.setDelay("fast", 5);
+		repoSystem.setDelay("slow", slowDelay);
+		List<RemoteRepository> repositories = Arrays.asList(new RemoteRepository.Builder("fast", "default", "http://fast.example.com/").build(),
+				new RemoteRepository.Builder("slow", "default", "http://slow.example.com/").build());
+
+		plain = PipelineBenchmark.newMojo(repoSystem);
+		PipelineBenchmark.setField(plain, "remoteRepos", repositories);
+		hedged = PipelineBenchmark.newMojo(repoSystem);
+		PipelineBenchmark.setField(hedged, "remoteRepos", repositories);
+		PipelineBenchmark.setField(hedged, "hedgedResolution", true);
+		PipelineBenchmark.setField(hedged, "hedgedDeadline", 20L);
+
+		rules = new ArrayList<String>();
+		for (int i = 0; i < RULES; i++) {
+			rules.add("com.acme:lib-" + i + ":[1.0.0,2.0.0)");
+		}
+	}
+
+	@Benchmark
+	public Map<String, String> single() throws Exception {
+		return resolve(plain);
+	}
+
+	@Benchmark
+	public Map<String, String> hedged() throws Exception {
+		return resolve(hedged);
+	}
+
+	private Map<String, String> resolve(VersionRange mojo) throws Exception {
+		PipelineBenchmark.setField(mojo, "reactorCache", ReactorResolutionCache.get(new DefaultRepositorySystemSession()));
+		return mojo.getNextVersionMap(rules);
+	}
+}
@@ -0,0 +1,235 @@
+package org.kloeckner.maven.plugin;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.model.Model;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.kloeckner.maven.plugin.util.ArtifactPrefilter;
+import org.kloeckner.maven.plugin.util.ExecutionReport;
+import org.kloeckner.maven.plugin.util.ModelInterpolator;
+import org.kloeckner.maven.plugin.util.PomElement;
+import org.kloeckner.maven.plugin.util.PomRewriter;
+import org.kloeckner.maven.plugin.util.PropertyChangePlan;
+import org.kloeckner.maven.plugin.util.ReactorResolutionCache;
+import org.kloeckner.maven.plugin.util.VersionRangeUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the stages of <code>use-latest-versions</code> on synthetic POMs of different sizes.
+ * <p>
+ * The rewrite benchmarks get a freshly parsed POM for every invocation, so they measure the rewrite alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineBenchmark {
+
+	private static final String[] EXPRESSIONS = { "${project.groupId}", "${project.version}", "${lib0.version}", "com.acme.${lib3.version}" };
+
+	@Param({ "SMALL", "MEDIUM", "HUGE" })
+	public SyntheticPom.Size size;
+
+	private SyntheticPom pom;
+
+	private MavenProject project;
+
+	private VersionRange mojo;
+
+	private Map<String, String> mappedVersions;
+
+	private Map<String, String> originalVersions;
+
+	private PomRewriter rewritten;
+
+	private File pomFile;
+
+	private byte[] pomBytes;
+
+	private ArtifactPrefilter unrelatedRules;
+
+	/**
+	 * A freshly parsed copy of the POM, with the elements a rewrite would touch.
+	 */
+	@State(Scope.Thread)
+	public static class ParsedPom {
+
+		PomRewriter document;
+
+		List<PomElement> versionElements;
+
+		@Setup(Level.Invocation)
+		public void parse(PipelineBenchmark benchmark) throws Exception {
+			document = PomRewriter.parse(benchmark.pom.getContent());
+			versionElements = new ArrayList<PomElement>();
+			collectVersions(document.getRootElement(), versionElements);
+		}
+
+		private static void collectVersions(PomElement element, List<PomElement> versions) {
+			for (PomElement child : element.getChildren()) {
+				if ("version".equals(child.getName())) {
+					versions.add(child);
+				} else {
+					collectVersions(child, versions);
+				}
+			}
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		pom = new SyntheticPom(size);
+		project = pom.newProject();
+		mojo = newMojo(new StubRepositorySystem(50));
+		mappedVersions = mojo.getNextVersionMap(pom.getRules());
+		originalVersions = mojo.getOriginalVersionMap(project);
+
+		rewritten = PomRewriter.parse(pom.getContent());
+		transform(rewritten);
+		pomFile = File.createTempFile("synthetic-pom", ".xml");
+
+		pomBytes = pom.getContent().getBytes("UTF-8");
+		List<String> unrelated = new ArrayList<String>();
+		for (int i = 0; i < 1000; i++) {
+			unrelated.add("org.example:unrelated-" + i);
+		}
+		unrelatedRules = ArtifactPrefilter.forKeys(unrelated);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		pomFile.delete();
+	}
+
+	static VersionRange newMojo(StubRepositorySystem repoSystem) throws ReflectiveOperationException {
+		VersionRange mojo = new VersionRange();
+		mojo.setLog(new NullLog());
+		DefaultRepositorySystemSession session = new DefaultRepositorySystemSession();
+		setField(mojo, "repoSystem", repoSystem);
+		setField(mojo, "repoSession", session);
+		setField(mojo, "remoteRepos", Collections.<RemoteRepository> emptyList());
+		setField(mojo, "reactorCache", ReactorResolutionCache.get(session));
+		return mojo;
+	}
+
+	/**
+	 * Sets a field Maven would inject.
+	 */
+	static void setField(Object target, String name, Object value) throws ReflectiveOperationException {
+		Field field = target.getClass().getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(target, value);
+	}
+
+	private void transform(PomRewriter document) throws MojoExecutionException {
+		mojo.transformDocument(project, document.getRootElement(), mappedVersions, originalVersions, new PropertyChangePlan(), new ExecutionReport(), false);
+	}
+
+	@Benchmark
+	public PomRewriter parse() throws Exception {
+		return PomRewriter.parse(pom.getContent());
+	}
+
+	/**
+	 * Scans the whole POM for 1000 artifactIds it doesn't contain, the cost of skipping a module without parsing it.
+	 */
+	@Benchmark
+	public boolean prefilter() {
+		return unrelatedRules.mightReference(pomBytes);
+	}
+
+	@Benchmark
+	public PomRewriter rewriteArtifactVersions(ParsedPom parsed) throws MojoExecutionException {
+		transform(parsed.document);
+		return parsed.document;
+	}
+
+	@Benchmark
+	public void interpolate(Blackhole blackhole) throws MojoExecutionException {
+		Model model = pom.getModel();
+		for (int i = 0; i < 100; i++) {
+			for (String expression : EXPRESSIONS) {
+				blackhole.consume(VersionRangeUtils.interpolate(expression, model));
+			}
+		}
+	}
+
+	/**
+	 * The interpolation engine used by the mojo, built once per execution like the mojo does.
+	 */
+	@Benchmark
+	public void interpolateMemoized(Blackhole blackhole) throws MojoExecutionException {
+		ModelInterpolator interpolator = new ModelInterpolator(pom.getModel());
+		for (int i = 0; i < 100; i++) {
+			for (String expression : EXPRESSIONS) {
+				blackhole.consume(interpolator.interpolate(expression));
+			}
+		}
+	}
+
+	@Benchmark
+	public PomRewriter rewriteValue(ParsedPom parsed) {
+		for (PomElement element : parsed.versionElements) {
+			VersionRangeUtils.rewriteValue(element, "1.0.49");
+		}
+		return parsed.document;
+	}
+
+	@Benchmark
+	public String splice() {
+		return rewritten.getContent();
+	}
+
+	@Benchmark
+	public File writePom() throws MojoExecutionException {
+		VersionRangeUtils.writePom(pomFile, rewritten);
+		return pomFile;
+	}
+
+	/**
+	 * Resolves all rules against the stub repository system, starting with an empty reactor cache every time.
+	 */
+	@Benchmark
+	public Map<String, String> getNextVersionMap() throws Exception {
+		setField(mojo, "reactorCache", ReactorResolutionCache.get(new DefaultRepositorySystemSession()));
+		return mojo.getNextVersionMap(pom.getRules());
+	}
+}
@@ -0,0 +1,351 @@
+package org.kloeckner.maven.plugin;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Runs a goal of the plugin end to end with Maven on a generated reactor against a file based repository, and compares
+ * the number of resolution calls and of rewritten versions and properties with a stored baseline.
+ * <p>
+ * Every run starts from a freshly generated reactor and an empty local repository, chained to the local repository
+ * holding Maven's own plugins, so nothing is resolved from the network and every rule is resolved cold. The resolution
+ * calls may not exceed the baseline and the rewrites must equal it; any regression makes the harness exit with status
+ * 1. With <code>-record</code> the results replace the baseline instead. Wall time and peak heap of the fastest run are
+ * reported, but not compared, as they depend on the machine.
+ * <p>
+ * With <code>-threads</code> Maven builds the modules in parallel, and afterwards the reactor is updated once more
+ * serially: every POM of the parallel runs must be byte for byte the same as the serial one.
+ * <p>
+ * Peak heap and resolution calls are taken from the reports the plugin writes, see
+ * {@link org.kloeckner.maven.plugin.util.ExecutionReport}.
+ */
+public class ScaleHarness {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final String USAGE = "usage: ScaleHarness [-scenario small|medium|large] [-goal <goal>] [-runs <n>] [-threads <n>] [-baseline <file>]"
+			+ " [-record] [-work <dir>] [-mvn <command>] [-tail <local repository>]";
+
+	private static final String REPORT = "version-range-maven-plugin-report.json";
+
+	private static final Pattern REWRITTEN = Pattern.compile("^  \"rewritten(?:Versions|Properties)\": (\\d+),$", Pattern.MULTILINE);
+
+	private static final Pattern PEAK_HEAP = Pattern.compile("^  \"peakHeapBytes\": (\\d+),$", Pattern.MULTILINE);
+
+	private static final Pattern RESOLUTION = Pattern.compile("\"source\": \"(?:remote|hedged)\"");
+
+	/**
+	 * Sizes of the generated reactors.
+	 */
+	enum Scenario {
+		SMALL(10, 500, 20, 20), MEDIUM(50, 2000, 40, 30), LARGE(200, 5000, 60, 50);
+
+		final int modules;
+
+		final int artifacts;
+
+		final int dependencies;
+
+		final int versions;
+
+		Scenario(int modules, int artifacts, int dependencies, int versions) {
+			this.modules = modules;
+			this.artifacts = artifacts;
+			this.dependencies = dependencies;
+			this.versions = versions;
+		}
+	}
+
+	/**
+	 * The measurements of one run, or the best of several.
+	 */
+	static final class Result {
+
+		long wallMillis;
+
+		long peakHeapBytes;
+
+		long resolutionCalls;
+
+		long rewrites;
+	}
+
+	private Scenario scenario = Scenario.SMALL;
+
+	private String goal = "use-latest-versions";
+
+	private int runs = 3;
+
+	private int threads = 1;
+
+	private File baseline = new File("scale-baseline.properties");
+
+	private boolean record;
+
+	private File work = new File("target/scale");
+
+	private String mvn = "mvn";
+
+	private File tail = new File(System.getProperty("user.home"), ".m2/repository");
+
+	public static void main(String[] args) throws Exception {
+		ScaleHarness harness = new ScaleHarness();
+		try {
+			harness.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+		System.exit(harness.run() ? 0 : 1);
+	}
+
+	private void parse(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if ("-record".equals(arg)) {
+				record = true;
+				continue;
+			}
+			if (i + 1 >= args.length) {
+				throw new IllegalArgumentException("missing value for " + arg);
+			}
+			String value = args[++i];
+			if ("-scenario".equals(arg)) {
+				scenario = Scenario.valueOf(value.toUpperCase(Locale.ROOT));
+			} else if ("-goal".equals(arg)) {
+				goal = value;
+			} else if ("-runs".equals(arg)) {
+				runs = Integer.parseInt(value);
+			} else if ("-threads".equals(arg)) {
+				threads = Integer.parseInt(value);
+			} else if ("-baseline".equals(arg)) {
+				baseline = new File(value);
+			} else if ("-work".equals(arg)) {
+				work = new File(value);
+			} else if ("-mvn".equals(arg)) {
+				mvn = value;
+			} else if ("-tail".equals(arg)) {
+				tail = new File(value);
+			} else {
+				throw new IllegalArgumentException("unknown option " + arg);
+			}
+		}
+	}
+
+	/**
+	 * @return whether there was no regression.
+	 */
+	boolean run() throws IOException, InterruptedException {
+		String name = scenario.name().toLowerCase(Locale.ROOT) + "." + goal + (threads > 1 ? ".T" + threads : "");
+		System.out.println("scenario " + name + ": " + scenario.modules + " modules, " + scenario.artifacts + " artifacts, " + scenario.dependencies
+				+ " dependencies per module, " + scenario.versions + " versions each");
+
+		SyntheticReactor reactor = new SyntheticReactor(scenario.modules, scenario.artifacts, scenario.dependencies, scenario.versions);
+		File repository = new File(work, "repository");
+		FileUtils.deleteDirectory(repository);
+		reactor.writeRepository(repository);
+		reactor.writeRules(work);
+
+		Result best = null;
+		File project = new File(work, "reactor");
+		for (int i = 1; i <= runs; i++) {
+			Result result = runOnce(reactor, repository, project, threads);
+			System.out.println("run " + i + ": " + result.wallMillis + "ms, " + (result.peakHeapBytes >> 20) + "MB peak heap, " + result.resolutionCalls
+					+ " resolution calls, " + result.rewrites + " rewrites");
+			if (best == null) {
+				best = result;
+			} else {
+				best.wallMillis = Math.min(best.wallMillis, result.wallMillis);
+				best.peakHeapBytes = Math.min(best.peakHeapBytes, result.peakHeapBytes);
+				best.resolutionCalls = Math.max(best.resolutionCalls, result.resolutionCalls);
+				if (best.rewrites != result.rewrites) {
+					System.out.println("run " + i + " rewrote " + result.rewrites + " instead of " + best.rewrites + " - REGRESSION");
+					return false;
+				}
+			}
+		}
+
+		if (threads > 1 && !compareWithSerialRun(reactor, repository, project)) {
+			return false;
+		}
+
+		Map<String, String> baselines = readBaseline();
+		System.out.println("wall time: " + best.wallMillis + "ms, peak heap: " + best.peakHeapBytes + " bytes, not compared");
+		if (record) {
+			baselines.put(name + ".resolutionCalls", Long.toString(best.resolutionCalls));
+			baselines.put(name + ".rewrites", Long.toString(best.rewrites));
+			writeBaseline(baselines);
+			System.out.println("recorded baseline in " + baseline);
+			return true;
+		}
+		boolean passed = compare("resolution calls", best.resolutionCalls, baselines.get(name + ".resolutionCalls"), false);
+		passed &= compare("rewrites", best.rewrites, baselines.get(name + ".rewrites"), true);
+		return passed;
+	}
+
+	/**
+	 * @return whether every POM updated by the parallel runs equals the one updated by a serial run.
+	 */
+	private boolean compareWithSerialRun(SyntheticReactor reactor, File repository, File parallel) throws IOException, InterruptedException {
+		File serial = new File(work, "serial");
+		runOnce(reactor, repository, serial, 1);
+		List<String> poms = new ArrayList<String>();
+		poms.add("pom.xml");
+		for (int m = 0; new File(serial, "module-" + m).isDirectory(); m++) {
+			poms.add("module-" + m + "/pom.xml");
+		}
+		boolean identical = true;
+		for (String pom : poms) {
+			if (!Arrays.equals(Files.readAllBytes(new File(serial, pom).toPath()), Files.readAllBytes(new File(parallel, pom).toPath()))) {
+				System.out.println(pom + " differs from the serial run - REGRESSION");
+				identical = false;
+			}
+		}
+		System.out.println(poms.size() + " POMs " + (identical ? "identical to" : "compared with") + " the serial run");
+		return identical;
+	}
+
+	private Result runOnce(SyntheticReactor reactor, File repository, File project, int threads) throws IOException, InterruptedException {
+		File local = new File(work, "local");
+		FileUtils.deleteDirectory(project);
+		FileUtils.deleteDirectory(local);
+		reactor.writeReactor(project, repository, work, getPluginVersion());
+
+		List<String> command = new ArrayList<String>();
+		command.add(mvn);
+		command.add("-B");
+		if (threads > 1) {
+			command.add("-T");
+			command.add(Integer.toString(threads));
+		}
+		command.add("-f");
+		command.add(new File(project, "pom.xml").getAbsolutePath());
+		command.add("-Dmaven.repo.local=" + local.getAbsolutePath());
+		command.add("-Dmaven.repo.local.tail=" + tail.getAbsolutePath());
+		command.add("org.kloeckner.maven.plugin:version-range-maven-plugin:" + getPluginVersion() + ":" + goal);
+		File log = new File(work, "maven.log");
+
+		long start = System.nanoTime();
+		Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log).start();
+		int exit = process.waitFor();
+		Result result = new Result();
+		result.wallMillis = (System.nanoTime() - start) / 1000000;
+		if (exit != 0) {
+			throw new IOException("maven failed with exit code " + exit + ", see " + log.getAbsolutePath());
+		}
+
+		for (File report : findReports(project, new ArrayList<File>())) {
+			String json = new String(Files.readAllBytes(report.toPath()), UTF8);
+			for (Matcher m = REWRITTEN.matcher(json); m.find();) {
+				result.rewrites += Long.parseLong(m.group(1));
+			}
+			Matcher m = PEAK_HEAP.matcher(json);
+			if (m.find()) {
+				result.peakHeapBytes = Math.max(result.peakHeapBytes, Long.parseLong(m.group(1)));
+			}
+			for (m = RESOLUTION.matcher(json); m.find();) {
+				result.resolutionCalls++;
+			}
+		}
+		String module = new String(Files.readAllBytes(new File(project, "module-0/pom.xml").toPath()), UTF8);
+		if (!module.contains(">" + reactor.getLatestVersion() + "<")) {
+			throw new IOException("module-0 was not updated to " + reactor.getLatestVersion());
+		}
+		return result;
+	}
+
+	private static List<File> findReports(File dir, List<File> reports) {
+		File report = new File(dir, "target/" + REPORT);
+		if (report.isFile()) {
+			reports.add(report);
+		}
+		File[] children = dir.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				if (child.isDirectory() && new File(child, "pom.xml").isFile()) {
+					findReports(child, reports);
+				}
+			}
+		}
+		return reports;
+	}
+
+	/**
+	 * @param exact whether the value must equal the baseline, otherwise it may be lower
+	 */
+	private static boolean compare(String what, long actual, String expected, boolean exact) {
+		if (expected == null) {
+			System.out.println(what + ": " + actual + ", no baseline, run with -record to store one");
+			return true;
+		}
+		long limit = Long.parseLong(expected);
+		boolean passed = exact ? actual == limit : actual <= limit;
+		System.out.println(what + ": " + actual + ", baseline " + expected + (passed ? "" : " - REGRESSION"));
+		return passed;
+	}
+
+	private static String getPluginVersion() throws IOException {
+		InputStream in = ScaleHarness.class.getResourceAsStream("/META-INF/maven/org.kloeckner.maven.plugin/version-range-maven-plugin/pom.properties");
+		if (in == null) {
+			throw new IOException("the plugin is not on the class path");
+		}
+		try {
+			Properties properties = new Properties();
+			properties.load(in);
+			return properties.getProperty("version");
+		} finally {
+			IOUtil.close(in);
+		}
+	}
+
+	private Map<String, String> readBaseline() throws IOException {
+		Map<String, String> baselines = new TreeMap<String, String>();
+		if (baseline.isFile()) {
+			for (String line : Files.readAllLines(baseline.toPath(), UTF8)) {
+				int idx = line.indexOf('=');
+				if (!line.startsWith("#") && idx > 0) {
+					baselines.put(line.substring(0, idx).trim(), line.substring(idx + 1).trim());
+				}
+			}
+		}
+		return baselines;
+	}
+
+	private void writeBaseline(Map<String, String> baselines) throws IOException {
+		StringBuilder sb = new StringBuilder("# baselines of the scale harness: <scenario>.<goal>.<measurement>=<value>\n");
+		for (Map.Entry<String, String> e : baselines.entrySet()) {
+			sb.append(e.getKey()).append('=').append(e.getValue()).append('\n');
+		}
+		Files.write(baseline.toPath(), sb.toString().getBytes(UTF8));
+	}
+}
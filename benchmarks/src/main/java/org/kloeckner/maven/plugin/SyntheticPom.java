@@ -0,0 +1,163 @@
+package org.kloeckner.maven.plugin;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.DependencyManagement;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Profile;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * Generates a POM with the given number of dependencies, managed dependencies and profiles, together with the
+ * interpolated model Maven would build from it and a matching set of version range rules.
+ * <p>
+ * Every third dependency takes its version from a property, every other dependency uses
+ * <code>${project.groupId}</code>, so both interpolation and property rewriting are exercised.
+ */
+public class SyntheticPom {
+
+	static final String GROUP_ID = "com.acme";
+
+	public enum Size {
+		SMALL(10, 5, 1), MEDIUM(100, 50, 5), HUGE(600, 300, 20);
+
+		final int dependencies;
+
+		final int managedDependencies;
+
+		final int profiles;
+
+		Size(int dependencies, int managedDependencies, int profiles) {
+			this.dependencies = dependencies;
+			this.managedDependencies = managedDependencies;
+			this.profiles = profiles;
+		}
+	}
+
+	private final StringBuilder pom = new StringBuilder();
+
+	private final Model model = new Model();
+
+	private final List<String> rules = new ArrayList<String>();
+
+	private final List<Profile> profiles = new ArrayList<Profile>();
+
+	public SyntheticPom(Size size) {
+		model.setModelVersion("4.0.0");
+		model.setGroupId(GROUP_ID);
+		model.setArtifactId("synthetic");
+		model.setVersion("1.0.0-SNAPSHOT");
+
+		pom.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		pom.append("<!-- generated for benchmarks -->\n");
+		pom.append("<project xmlns=\"http://maven.apache.org/POM/4.0.0\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"");
+		pom.append(" xsi:schemaLocation=\"http://maven.apache.org/POM/4.0.0 http://maven.apache.org/maven-v4_0_0.xsd\">\n");
+		pom.append("\t<modelVersion>4.0.0</modelVersion>\n");
+		pom.append("\t<groupId>").append(GROUP_ID).append("</groupId>\n");
+		pom.append("\t<artifactId>synthetic</artifactId>\n");
+		pom.append("\t<version>1.0.0-SNAPSHOT</version>\n");
+
+		pom.append("\t<properties>\n");
+		for (int i = 0; i < size.dependencies + size.managedDependencies; i += 3) {
+			pom.append("\t\t<lib").append(i).append(".version>1.0.0</lib").append(i).append(".version>\n");
+			model.addProperty("lib" + i + ".version", "1.0.0");
+		}
+		pom.append("\t</properties>\n");
+
+		DependencyManagement management = new DependencyManagement();
+		appendDependencies("\t", "dependencyManagement", size.dependencies, size.managedDependencies, management.getDependencies());
+		model.setDependencyManagement(management);
+		appendDependencies("\t", null, 0, size.dependencies, model.getDependencies());
+
+		pom.append("\t<profiles>\n");
+		for (int p = 0; p < size.profiles; p++) {
+			Profile profile = new Profile();
+			profile.setId("profile" + p);
+			pom.append("\t\t<profile>\n");
+			pom.append("\t\t\t<id>profile").append(p).append("</id>\n");
+			DependencyManagement profileManagement = new DependencyManagement();
+			appendDependencies("\t\t\t", "dependencyManagement", p * 10, 5, profileManagement.getDependencies());
+			profile.setDependencyManagement(profileManagement);
+			appendDependencies("\t\t\t", null, p * 10 + 5, 5, profile.getDependencies());
+			pom.append("\t\t</profile>\n");
+			model.addProfile(profile);
+			profiles.add(profile);
+		}
+		pom.append("\t</profiles>\n");
+		pom.append("</project>\n");
+
+		for (int i = 0; i < size.dependencies + size.managedDependencies; i += 2) {
+			rules.add(groupId(i) + ":lib-" + i + ":[1.0.0,2.0.0)");
+		}
+	}
+
+	private void appendDependencies(String indent, String wrapper, int offset, int count, List<Dependency> dependencies) {
+		String inner = indent;
+		if (wrapper != null) {
+			pom.append(indent).append('<').append(wrapper).append(">\n");
+			inner = indent + "\t";
+		}
+		pom.append(inner).append("<dependencies>\n");
+		for (int i = offset; i < offset + count; i++) {
+			pom.append(inner).append("\t<dependency>\n");
+			pom.append(inner).append("\t\t<groupId>").append(i % 2 == 0 ? "${project.groupId}" : groupId(i)).append("</groupId>\n");
+			pom.append(inner).append("\t\t<artifactId>lib-").append(i).append("</artifactId>\n");
+			pom.append(inner).append("\t\t<version>").append(i % 3 == 0 ? "${lib" + i + ".version}" : "1.0.0").append("</version>\n");
+			pom.append(inner).append("\t</dependency>\n");
+
+			Dependency dependency = new Dependency();
+			dependency.setGroupId(groupId(i));
+			dependency.setArtifactId("lib-" + i);
+			dependency.setVersion("1.0.0");
+			dependencies.add(dependency);
+		}
+		pom.append(inner).append("</dependencies>\n");
+		if (wrapper != null) {
+			pom.append(indent).append("</").append(wrapper).append(">\n");
+		}
+	}
+
+	private static String groupId(int i) {
+		return i % 2 == 0 ? GROUP_ID : GROUP_ID + ".lib" + (i % 10);
+	}
+
+	public String getContent() {
+		return pom.toString();
+	}
+
+	public Model getModel() {
+		return model;
+	}
+
+	/**
+	 * @return a project for the model with all profiles active.
+	 */
+	public MavenProject newProject() {
+		MavenProject project = new MavenProject(model);
+		project.setActiveProfiles(profiles);
+		return project;
+	}
+
+	/**
+	 * @return a rule for every other dependency.
+	 */
+	public List<String> getRules() {
+		return rules;
+	}
+}
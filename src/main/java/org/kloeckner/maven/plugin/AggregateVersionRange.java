@@ -0,0 +1,176 @@
+package org.kloeckner.maven.plugin;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+import org.kloeckner.maven.plugin.util.ExecutionReport;
+import org.kloeckner.maven.plugin.util.PomRewriter;
+import org.kloeckner.maven.plugin.util.PropertyChangePlan;
+
+/**
+ * Goal updates the configured dependencies within the specified ranges in
+ * all modules of the reactor at once. The rules are loaded once, then the
+ * POMs of the modules are read and transformed in parallel, each resolving
+ * the rules of the artifacts it declares that no other module resolved yet.
+ * Properties the modules inherit are updated in their parent POMs, and every
+ * POM is written once, again in parallel.
+ *
+ * @goal use-latest-versions-aggregate
+ *
+ * @aggregator
+ *
+ * @threadSafe
+ */
+public class AggregateVersionRange extends VersionRange {
+
+	/**
+	 * Number of threads updating POMs. With <code>0</code> one thread per
+	 * available processor is used.
+	 *
+	 * @parameter default-value="0"
+	 */
+	private int rewriteThreads;
+
+	/**
+	 * Updates the POMs of all reactor projects on a fixed thread pool, as the
+	 * tasks block on file I/O and on the locks of the POMs. All POMs
+	 * are transformed first; a failing module does not stop the others, all
+	 * failures are logged and the first one fails the build before any POM is
+	 * written. Properties inherited from a POM of the reactor are updated in
+	 * that POM, so every POM is written at most once.
+	 */
+	@Override
+	void updatePoms() throws MojoExecutionException {
+		loadRules();
+		final PropertyChangePlan plan = new PropertyChangePlan();
+		final Map<MavenProject, ExecutionReport> moduleReports = new LinkedHashMap<MavenProject, ExecutionReport>();
+		for (MavenProject project : reactorProjects) {
+			moduleReports.put(project, new ExecutionReport());
+		}
+		report.startPhase("modules");
+		ExecutorService pool = Executors
+				.newFixedThreadPool(rewriteThreads > 0 ? rewriteThreads
+						: Runtime.getRuntime().availableProcessors());
+		try {
+			Map<MavenProject, Future<PendingPom>> prepared = new LinkedHashMap<MavenProject, Future<PendingPom>>();
+			for (final Map.Entry<MavenProject, ExecutionReport> e : moduleReports
+					.entrySet()) {
+				prepared.put(e.getKey(), pool.submit(new Callable<PendingPom>() {
+					public PendingPom call() throws MojoExecutionException {
+						try {
+							return preparePom(e.getKey(), plan, e.getValue());
+						} finally {
+							e.getValue().endPhase();
+						}
+					}
+				}));
+			}
+			final List<PendingPom> poms = new ArrayList<PendingPom>();
+			for (PendingPom pending : await(prepared)) {
+				if (pending != null) {
+					poms.add(pending);
+				}
+			}
+
+			Map<File, PomRewriter> documents = new HashMap<File, PomRewriter>();
+			for (PendingPom pom : poms) {
+				documents.put(PropertyChangePlan.canonical(pom.pomFile),
+						pom.document);
+			}
+			applyPlan(plan, documents, report);
+
+			report.startPhase("write");
+			Map<MavenProject, Future<PendingPom>> written = new LinkedHashMap<MavenProject, Future<PendingPom>>();
+			for (final PendingPom pom : poms) {
+				written.put(pom.project, pool.submit(new Callable<PendingPom>() {
+					public PendingPom call() throws MojoExecutionException {
+						ExecutionReport moduleReport = moduleReports
+								.get(pom.project);
+						moduleReport.startPhase("write");
+						Lock pomLock = getPomLock(pom.pomFile);
+						pomLock.lock();
+						try {
+							moduleReport.setWritten(writeDocument(pom.pomFile,
+									pom.document));
+						} finally {
+							pomLock.unlock();
+						}
+						moduleReport.endPhase();
+						return pom;
+					}
+				}));
+			}
+			for (PendingPom pom : await(written)) {
+				writeFingerprint(pom);
+			}
+		} finally {
+			// only stops tasks if waiting for them failed
+			pool.shutdownNow();
+		}
+		for (Map.Entry<MavenProject, ExecutionReport> e : moduleReports
+				.entrySet()) {
+			e.getValue().endPhase();
+			report.addModule(e.getKey().getId(), e.getValue());
+		}
+	}
+
+	/**
+	 * Waits for all futures, logging every failure.
+	 * 
+	 * @return the results, in the order of the futures
+	 * @throws MojoExecutionException the first failure, if any
+	 */
+	private <T> List<T> await(Map<MavenProject, Future<T>> futures)
+			throws MojoExecutionException {
+		List<T> results = new ArrayList<T>(futures.size());
+		MojoExecutionException failure = null;
+		for (Map.Entry<MavenProject, Future<T>> e : futures.entrySet()) {
+			String projectId = e.getKey().getId();
+			try {
+				results.add(e.getValue().get());
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new MojoExecutionException("interrupted while updating "
+						+ projectId, ex);
+			} catch (ExecutionException ex) {
+				MojoExecutionException cause = ex.getCause() instanceof MojoExecutionException ? (MojoExecutionException) ex
+						.getCause() : new MojoExecutionException(
+						"unable to update " + projectId, ex.getCause());
+				getLog().error(projectId + ": " + cause.getMessage());
+				if (failure == null) {
+					failure = cause;
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		return results;
+	}
+}
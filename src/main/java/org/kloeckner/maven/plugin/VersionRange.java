@@ -16,39 +16,71 @@ package org.kloeckner.maven.plugin;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.StringReader;
-import java.io.StringWriter;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Lock;
+
+import javax.xml.stream.XMLStreamException;
 
 import org.apache.maven.artifact.ArtifactUtils;
+import org.apache.maven.model.BuildBase;
 import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Extension;
 import org.apache.maven.model.Model;
+import org.apache.maven.model.Plugin;
 import org.apache.maven.model.Profile;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.project.MavenProject;
+import org.eclipse.aether.DefaultRepositorySystemSession;
 import org.eclipse.aether.RepositorySystem;
 import org.eclipse.aether.RepositorySystemSession;
 import org.eclipse.aether.artifact.Artifact;
 import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.ArtifactRepository;
 import org.eclipse.aether.repository.RemoteRepository;
 import org.eclipse.aether.resolution.VersionRangeRequest;
 import org.eclipse.aether.resolution.VersionRangeResolutionException;
 import org.eclipse.aether.resolution.VersionRangeResult;
+import org.eclipse.aether.transfer.MetadataTransferException;
+import org.eclipse.aether.util.version.GenericVersionScheme;
+import org.eclipse.aether.version.InvalidVersionSpecificationException;
 import org.eclipse.aether.version.Version;
-import org.jdom.Document;
-import org.jdom.Element;
-import org.jdom.JDOMException;
-import org.jdom.Namespace;
-import org.jdom.input.SAXBuilder;
-import org.jdom.output.Format;
-import org.jdom.output.XMLOutputter;
+import org.eclipse.aether.version.VersionConstraint;
+import org.kloeckner.maven.plugin.util.ArtifactPrefilter;
+import org.kloeckner.maven.plugin.util.ExecutionReport;
+import org.kloeckner.maven.plugin.util.Fingerprint;
+import org.kloeckner.maven.plugin.util.FlightRecorderEvents;
+import org.kloeckner.maven.plugin.util.HedgedVersionResolver;
+import org.kloeckner.maven.plugin.util.JvmResolutionCache;
+import org.kloeckner.maven.plugin.util.LocalRepositoryIndex;
+import org.kloeckner.maven.plugin.util.LockFile;
+import org.kloeckner.maven.plugin.util.ModelInterpolator;
+import org.kloeckner.maven.plugin.util.PackedVersions;
+import org.kloeckner.maven.plugin.util.PomElement;
+import org.kloeckner.maven.plugin.util.PomIndex;
+import org.kloeckner.maven.plugin.util.PomRewriter;
+import org.kloeckner.maven.plugin.util.PropertyChangePlan;
+import org.kloeckner.maven.plugin.util.ReactorResolutionCache;
+import org.kloeckner.maven.plugin.util.RepositoryCircuitBreaker;
+import org.kloeckner.maven.plugin.util.RuleCatalog;
+import org.kloeckner.maven.plugin.util.VersionRangeCache;
 import org.kloeckner.maven.plugin.util.VersionRangeUtils;
 
 /**
@@ -57,12 +89,32 @@ import org.kloeckner.maven.plugin.util.VersionRangeUtils;
  * @goal use-latest-versions
  * 
  * @phase process-sources
+ * 
+ * @threadSafe
  */
 public class VersionRange extends AbstractMojo {
 
-	/** @parameter default-value="${project}" */
+	private static final GenericVersionScheme VERSION_SCHEME = new GenericVersionScheme();
+
+	/** range matching every version */
+	private static final String ALL_VERSIONS = "(,)";
+
+	/**
+	 * The project whose POM is updated.
+	 * 
+	 * @parameter default-value="${project}"
+	 * @readonly
+	 */
 	private MavenProject mavenProject;
 
+	/**
+	 * The projects of the reactor.
+	 * 
+	 * @parameter default-value="${reactorProjects}"
+	 * @readonly
+	 */
+	List<MavenProject> reactorProjects;
+
 	/**
 	 * The entry point to Aether, i.e. the component doing all the work.
 	 * 
@@ -88,373 +140,1857 @@ public class VersionRange extends AbstractMojo {
 	private List<RemoteRepository> remoteRepos;
 
 	/**
+	 * Directory containing the version range rules file.
+	 * 
 	 * @parameter default-value="."
 	 */
 	private String dependencyVersionRangePath = ".";
 
 	/**
+	 * Name of the version range rules file.
+	 * 
 	 * @parameter default-value="version-range-maven-plugin.properties"
 	 */
 	private String dependencyVersionRangeFile = "version-range-maven-plugin.properties";
 
-	public void execute() throws MojoExecutionException {
-		readWritePom(mavenProject);
-	}
+	/**
+	 * Whether the rules are compiled into a binary file, which later builds
+	 * read instead of the rules file as long as that is unchanged. Worth it
+	 * for large rule catalogs.
+	 * 
+	 * @parameter default-value="false"
+	 */
+	private boolean useCompiledRules;
 
-	private void readWritePom(MavenProject project)
-			throws MojoExecutionException {
+	/**
+	 * The file holding the compiled rules. Defaults to a file in
+	 * <code>.cache/version-range-maven-plugin</code> inside the local
+	 * repository, named after the rules file.
+	 * 
+	 * @parameter
+	 */
+	private File compiledRulesFile;
 
-		Document document;
-		String intro = null;
-		String outtro = null;
-		try {
-			String content = VersionRangeUtils.readXmlFile(
-					VersionRangeUtils.getStandardPom(project),
-					VersionRangeUtils.LS);
-			// we need to eliminate any extra whitespace inside elements, as
-			// JDOM will nuke it
-			content = content.replaceAll("<([^!][^>]*?)\\s{2,}([^>]*?)>",
-					"<$1 $2>");
-			content = content.replaceAll("(\\s{2,}|[^\\s])/>", "$1 />");
-
-			SAXBuilder builder = new SAXBuilder();
-			document = builder.build(new StringReader(content));
-
-			// Normalize line endings to platform's style (XML processors like
-			// JDOM normalize line endings to "\n" as
-			// per section 2.11 of the XML spec)
-			VersionRangeUtils.normaliseLineEndings(document);
-
-			// rewrite DOM as a string to find differences, since text outside
-			// the root element is not tracked
-			StringWriter w = new StringWriter();
-			Format format = Format.getRawFormat();
-			format.setLineSeparator(VersionRangeUtils.LS);
-			XMLOutputter out = new XMLOutputter(format);
-			out.output(document.getRootElement(), w);
-
-			int index = content.indexOf(w.toString());
-			if (index >= 0) {
-				intro = content.substring(0, index);
-				outtro = content.substring(index + w.toString().length());
-			} else {
-				/*
-				 * NOTE: Due to whitespace, attribute reordering or entity
-				 * expansion the above indexOf test can easily fail. So let's
-				 * try harder. Maybe some day, when JDOM offers a StaxBuilder
-				 * and this builder employes
-				 * XMLInputFactory2.P_REPORT_PROLOG_WHITESPACE, this whole mess
-				 * can be avoided.
-				 */
-				final String SPACE = "\\s++";
-				final String XML = "<\\?(?:(?:[^\"'>]++)|(?:\"[^\"]*+\")|(?:'[^\']*+'))*+>";
-				final String INTSUB = "\\[(?:(?:[^\"'\\]]++)|(?:\"[^\"]*+\")|(?:'[^\']*+'))*+\\]";
-				final String DOCTYPE = "<!DOCTYPE(?:(?:[^\"'\\[>]++)|(?:\"[^\"]*+\")|(?:'[^\']*+')|(?:"
-						+ INTSUB + "))*+>";
-				final String PI = XML;
-				final String COMMENT = "<!--(?:[^-]|(?:-[^-]))*+-->";
-
-				final String INTRO = "(?:(?:" + SPACE + ")|(?:" + XML + ")|(?:"
-						+ DOCTYPE + ")|(?:" + COMMENT + ")|(?:" + PI + "))*";
-				final String OUTRO = "(?:(?:" + SPACE + ")|(?:" + COMMENT
-						+ ")|(?:" + PI + "))*";
-				final String POM = "(?s)(" + INTRO + ")(.*?)(" + OUTRO + ")";
-
-				Matcher matcher = Pattern.compile(POM).matcher(content);
-				if (matcher.matches()) {
-					intro = matcher.group(1);
-					outtro = matcher.group(matcher.groupCount());
-				}
-			}
-		} catch (JDOMException e) {
-			throw new MojoExecutionException("Error reading POM: "
-					+ e.getMessage(), e);
-		} catch (IOException e) {
-			throw new MojoExecutionException("Error reading POM: "
-					+ e.getMessage(), e);
-		}
+	/**
+	 * Whether the versions the rules resolved to are written to the
+	 * lockfile, along with the repository they were found in and when, so a
+	 * later build can use them in frozen mode. The entries of rules not
+	 * resolved by the build, e.g. of modules not built, are kept.
+	 * 
+	 * @parameter default-value="false"
+	 */
+	private boolean writeLockFile;
 
-		List<MavenProject> reactorProjects = new ArrayList<MavenProject>();
-		Object result = new Object();
-		transformDocument(project, document.getRootElement(), reactorProjects,
-				result, false);
+	/**
+	 * Whether the entries of rules no longer in the rules file are removed
+	 * when the lockfile is written.
+	 * 
+	 * @parameter property="versionRange.pruneLockFile" default-value="false"
+	 */
+	private boolean pruneLockFile;
 
-		// for overwriting:
-		File pomFile = VersionRangeUtils.getStandardPom(project);
-		// File pomFile = new File(project.getBasedir(), "newpom.xml");
+	/**
+	 * Whether the versions are taken from the lockfile instead of resolving
+	 * the rules, without contacting any repository. An exact rule without an
+	 * entry in the lockfile fails the build before any POM is read, a
+	 * wildcard rule as soon as it matches an artifact without an entry.
+	 * 
+	 * @parameter property="versionRange.frozen" default-value="false"
+	 */
+	private boolean frozen;
 
-		// if (simulate) {
-		// File outputFile = new File(pomFile.getParentFile(), pomFile.getName()
-		// + "." + pomSuffix);
-		// writePom(outputFile, document, releaseDescriptor,
-		// project.getModelVersion(), intro, outtro);
-		// } else {
+	/**
+	 * The lockfile. Defaults to the rules file with the extension
+	 * <code>.lock</code> instead of <code>.properties</code>.
+	 * 
+	 * @parameter
+	 */
+	private File lockFile;
 
-		VersionRangeUtils.writePom(pomFile, document,
-				project.getModelVersion(), intro, outtro);
-		// }
+	/**
+	 * Number of threads used to resolve the configured version ranges. With a
+	 * value of <code>1</code> the ranges are resolved one after another.
+	 * 
+	 * @parameter default-value="1"
+	 */
+	private int resolutionThreads = 1;
 
-	}
+	/**
+	 * Maximum time in seconds to wait for a single version range resolution
+	 * when resolving concurrently.
+	 * 
+	 * @parameter default-value="60"
+	 */
+	private int resolutionTimeout = 60;
 
-	private void transformDocument(MavenProject project, Element rootElement,
-			List<MavenProject> reactorProjects, Object result, boolean simulate)
-			throws MojoExecutionException {
-		Namespace namespace = rootElement.getNamespace();
+	/**
+	 * Whether resolved version ranges are kept in a persistent cache, so
+	 * subsequent builds don't have to resolve them again.
+	 * 
+	 * @parameter default-value="false"
+	 */
+	private boolean useResolutionCache;
 
-		List<String> eagerArtifactsStrings = VersionRangeUtils
-				.loadEagerDependencies(dependencyVersionRangePath,
-						dependencyVersionRangeFile);
+	/**
+	 * The file holding the persistent resolution cache. Defaults to
+	 * <code>.cache/version-range-maven-plugin/resolutions.bin</code> inside
+	 * the local repository.
+	 * 
+	 * @parameter
+	 */
+	private File resolutionCacheFile;
 
-		Map<String, String> mappedVersions = getNextVersionMap(eagerArtifactsStrings);
-		Map<String, String> originalVersions = getOriginalVersionMap(project);
+	/**
+	 * Time in seconds a cached resolution is used without asking the remote
+	 * repositories again. Expired entries are kept for revalidation up to
+	 * {@link VersionRangeCache#RETENTION_TTLS} times as long.
+	 * 
+	 * @parameter default-value="3600"
+	 */
+	private int resolutionCacheTtl = 3600;
 
-		getLog().debug("mapped Versions (newer Versions):" + mappedVersions);
-		getLog().debug("original Versions: " + originalVersions);
+	/**
+	 * Whether an expired cache entry is first revalidated against the
+	 * repository metadata in the local repository. If another build has
+	 * refreshed that metadata within the TTL, the range is resolved offline
+	 * from it instead of contacting the remote repositories.
+	 * 
+	 * @parameter default-value="true"
+	 */
+	private boolean resolutionCacheRevalidate = true;
 
-		Model model = project.getModel();
-		Element properties = rootElement.getChild("properties", namespace);
+	/**
+	 * Whether rules and resolved version lists are kept in memory for as long
+	 * as the JVM lives, so builds run by a long lived Maven daemon don't
+	 * start cold. The hit and miss counters are logged after every run.
+	 * 
+	 * @parameter default-value="false"
+	 */
+	private boolean useJvmCache;
 
-		// String parentVersion = EagerUpdateUtils.rewriteParent(project,
-		// rootElement, namespace, mappedVersions, originalVersions);
-		VersionRangeUtils.rewriteParent(project, rootElement, namespace,
-				mappedVersions, originalVersions);
-
-		List<Element> roots = new ArrayList<Element>();
-		roots.add(rootElement);
-		List<Element> profileElements = VersionRangeUtils.getChildren(
-				rootElement, "profiles", "profile");
-		getLog().debug("got profiles: " + profileElements);
-		roots.addAll(profileElements);
-
-		for (Element root : roots) {
-			rewriteArtifactVersions(
-					VersionRangeUtils.getChildren(root, "parent"),
-					mappedVersions, originalVersions, model, properties, result);
-			rewriteArtifactVersions(VersionRangeUtils.getChildren(root,
-					"dependencies", "dependency"), mappedVersions,
-					originalVersions, model, properties, result);
-			rewriteArtifactVersions(VersionRangeUtils.getChildren(root,
-					"dependencyManagement", "dependencies", "dependency"),
-					mappedVersions, originalVersions, model, properties, result);
-		}
-	}
+	/**
+	 * Maximum number of rules files and of version lists each kept in memory.
+	 * The least recently used ones are evicted first.
+	 * 
+	 * @parameter default-value="10000"
+	 */
+	private int jvmCacheSize = 10000;
 
-	// private Map<String, String> getOriginalVersionMap(List<MavenProject>
-	// reactorProjects) {
-	private Map<String, String> getOriginalVersionMap(MavenProject projects) {
-		HashMap<String, String> hashMap = new HashMap<String, String>();
+	/**
+	 * Time in seconds a version list is kept in memory.
+	 * 
+	 * @parameter default-value="600"
+	 */
+	private int jvmCacheTtl = 600;
 
-		// TODO depmgmt, parent ...
-		if (projects.getParentArtifact() != null) {
-			hashMap.put(ArtifactUtils.versionlessKey(projects
-					.getParentArtifact().getGroupId(), projects
-					.getParentArtifact().getArtifactId()), projects
-					.getParentArtifact().getArtifactId());
+	/**
+	 * Whether to skip a module whose POM, inherited POMs, rules and versions
+	 * are unchanged since the last run. This leaves the POM untouched without
+	 * even parsing it.
+	 * 
+	 * @parameter default-value="true"
+	 */
+	private boolean skipUnchanged = true;
+
+	/**
+	 * Whether to skip a module whose POM names none of the artifactIds with a
+	 * rule. The raw bytes of the POM are scanned for all artifactIds at once,
+	 * before any XML is parsed.
+	 * 
+	 * @parameter default-value="true"
+	 */
+	private boolean prefilter = true;
+
+	/**
+	 * The file the fingerprint of the last run is stored in.
+	 * 
+	 * @parameter default-value="${project.build.directory}/version-range-maven-plugin.fingerprint"
+	 */
+	private File fingerprintFile;
+
+	/**
+	 * Whether version ranges are resolved from the local repository only,
+	 * without contacting any remote repository. The versions are looked up in
+	 * an index of the local repository which is refreshed once per build.
+	 * Independent of the offline mode of Maven, which still resolves through
+	 * the repository system.
+	 * 
+	 * @parameter default-value="false"
+	 */
+	private boolean resolveOffline;
+
+	/**
+	 * The file holding the index of the local repository used when resolving
+	 * offline. Defaults to
+	 * <code>.cache/version-range-maven-plugin/local-index.bin</code> inside
+	 * the local repository.
+	 * 
+	 * @parameter
+	 */
+	private File localIndexFile;
+
+	/**
+	 * The file the timing and allocation report of the execution is written
+	 * to, as JSON. A one line summary is logged as well.
+	 * 
+	 * @parameter default-value="${project.build.directory}/version-range-maven-plugin-report.json"
+	 */
+	private File reportFile;
+
+	/**
+	 * Whether a rewritten POM is forced to disk before it replaces the
+	 * original, so it survives a crash of the machine.
+	 * 
+	 * @parameter default-value="false"
+	 */
+	private boolean syncWrites;
+
+	/**
+	 * Which versions a range may resolve to: <code>all</code> like Aether,
+	 * <code>releases</code> to leave out SNAPSHOTs, or <code>final</code> to
+	 * leave out every qualified version but service packs.
+	 * 
+	 * @parameter default-value="all"
+	 */
+	private String versionFilter = "all";
+
+	/**
+	 * Whether the remote repositories are asked one by one, all at the same
+	 * time, instead of in a single request. The answers are merged as they
+	 * arrive, so a slow or unreachable repository no longer holds up every
+	 * resolution.
+	 * 
+	 * @parameter default-value="false"
+	 */
+	private boolean hedgedResolution;
+
+	/**
+	 * Number of repositories knowing an artifact to wait for when resolving
+	 * hedged. <code>0</code> waits for all of them.
+	 * 
+	 * @parameter default-value="0"
+	 */
+	private int hedgedQuorum;
+
+	/**
+	 * Time in milliseconds after which a hedged resolution takes the answers
+	 * received so far, provided at least one repository knowing the artifact
+	 * answered. Repositories whose latency estimate exceeds it are not asked
+	 * while the others can make up the quorum.
+	 * 
+	 * @parameter default-value="2000"
+	 */
+	private long hedgedDeadline = 2000;
+
+	/**
+	 * Time in seconds after which a repository not asked for being slower
+	 * than the deadline is asked again in the background, so its latency
+	 * estimate can recover.
+	 * 
+	 * @parameter default-value="60"
+	 */
+	private int hedgedProbeInterval = 60;
+
+	/**
+	 * Number of failures in a row after which a remote repository is skipped
+	 * by all executions of the build, until its cooldown is over. Missing
+	 * metadata doesn't count as a failure. With <code>0</code> repositories
+	 * are never skipped.
+	 * 
+	 * @parameter default-value="3"
+	 */
+	private int circuitBreakerThreshold = 3;
+
+	/**
+	 * Time in seconds a failing remote repository is skipped before a single
+	 * request is let through to find out whether it is back.
+	 * 
+	 * @parameter default-value="60"
+	 */
+	private int circuitBreakerCooldown = 60;
+
+	/**
+	 * Time in seconds a range that could not be resolved is not tried again.
+	 * The time doubles with every further failure in a row. Failures are kept
+	 * in the persistent resolution cache, so this applies only if
+	 * <code>useResolutionCache</code> is set. With <code>0</code> failures
+	 * are not kept.
+	 * 
+	 * @parameter default-value="60"
+	 */
+	private int negativeCacheBackoff = 60;
+
+	/**
+	 * Maximum time in seconds a range that could not be resolved is not tried
+	 * again.
+	 * 
+	 * @parameter default-value="3600"
+	 */
+	private int negativeCacheMaxBackoff = 3600;
+
+	final ExecutionReport report = new ExecutionReport();
+
+	private VersionRangeCache resolutionCache;
+
+	private JvmResolutionCache jvmCache;
+
+	private LocalRepositoryIndex localIndex;
+
+	private RuleCatalog ruleCatalog;
+
+	private LockFile lock;
+
+	private ReactorResolutionCache reactorCache;
+
+	private RepositoryCircuitBreaker circuitBreaker;
+
+	/** canonical POM files of the reactor */
+	private Set<File> reactorPoms;
+
+	public void execute() throws MojoExecutionException {
+		reactorCache = ReactorResolutionCache.get(repoSession);
+		if (circuitBreakerThreshold > 0) {
+			circuitBreaker = reactorCache.getCircuitBreaker(
+					circuitBreakerThreshold,
+					TimeUnit.SECONDS.toMillis(circuitBreakerCooldown));
 		}
-		hashMap.putAll(buildVersionsMap(projects.getDependencies()));
-		if (projects.getDependencyManagement() != null) {
-			hashMap.putAll(buildVersionsMap(projects.getDependencyManagement()
-					.getDependencies()));
+		if (useJvmCache) {
+			jvmCache = JvmResolutionCache.get(jvmCacheSize,
+					TimeUnit.SECONDS.toMillis(jvmCacheTtl));
 		}
-
-		for (Profile profile : projects.getActiveProfiles()) {
-			hashMap.putAll(buildVersionsMap(profile.getDependencies()));
-			if (profile.getDependencyManagement() != null) {
-				hashMap.putAll(buildVersionsMap(profile
-						.getDependencyManagement().getDependencies()));
+		if (frozen || writeLockFile) {
+			report.startPhase("lockFile");
+			lock = getLockFile();
+		}
+		if (frozen) {
+			loadRules();
+			checkLockFile();
+			getLog().debug(
+					"using the " + lock.size() + " versions locked in "
+							+ lock.getFile());
+		} else if (resolveOffline) {
+			report.startPhase("localIndex");
+			localIndex = getLocalIndex();
+		} else if (useResolutionCache) {
+			resolutionCache = reactorCache.getPersistentCache();
+			if (resolutionCache == null) {
+				resolutionCache = reactorCache
+						.setPersistentCacheIfAbsent(loadResolutionCache());
+			}
+		}
+		try {
+			updatePoms();
+			if (writeLockFile && !frozen) {
+				saveLockFile();
+			}
+			writeReport();
+			if (jvmCache != null) {
+				getLog().info("version-range: jvm cache " + jvmCache.getStats());
+			}
+		} finally {
+			String circuits = circuitBreaker != null ? circuitBreaker
+					.getStats() : null;
+			if (circuits != null) {
+				getLog().info("version-range: repository circuits " + circuits);
+			}
+			if (resolutionCache != null) {
+				try {
+					resolutionCache.save();
+				} catch (IOException e) {
+					getLog().warn(
+							"unable to write resolution cache "
+									+ resolutionCache.getFile() + ": "
+									+ e.getMessage());
+				}
 			}
 		}
+	}
 
-		return hashMap;
+	/**
+	 * Updates the POM of the current project.
+	 */
+	void updatePoms() throws MojoExecutionException {
+		loadRules();
+		readWritePom(mavenProject, report);
 	}
 
-	private Map<String, String> buildVersionsMap(List<Dependency> dependencies) {
-		Map<String, String> hashMap = new HashMap<String, String>();
-		for (Dependency dep : dependencies) {
-			String currentVersion = dep.getVersion();
-			String versionlessKey = ArtifactUtils.versionlessKey(
-					dep.getGroupId(), dep.getArtifactId());
-			hashMap.put(versionlessKey, currentVersion);
+	private VersionRangeCache loadResolutionCache() {
+		File file = resolutionCacheFile;
+		if (file == null) {
+			file = new File(repoSession.getLocalRepository().getBasedir(),
+					".cache/version-range-maven-plugin/resolutions.bin");
 		}
-		return hashMap;
+		VersionRangeCache cache = new VersionRangeCache(file,
+				TimeUnit.SECONDS.toMillis(resolutionCacheTtl),
+				TimeUnit.SECONDS.toMillis(negativeCacheBackoff),
+				TimeUnit.SECONDS.toMillis(negativeCacheMaxBackoff));
+		try {
+			cache.load();
+			getLog().debug(
+					"loaded " + cache.size() + " cached resolutions from "
+							+ file);
+		} catch (IOException e) {
+			getLog().warn(
+					"unable to read resolution cache " + file + ": "
+							+ e.getMessage());
+		}
+		return cache;
 	}
 
-	private Map<String, String> getNextVersionMap(List<String> eagerArtifacts)
-			throws MojoExecutionException {
-		HashMap<String, String> hashMap = new HashMap<String, String>();
-		for (String s : eagerArtifacts) {
-			DefaultArtifact artifact = new DefaultArtifact(s);
-			Version newVersion = resolveNewVersion(artifact);
-			String versionlessKey = ArtifactUtils.versionlessKey(
-					artifact.getGroupId(), artifact.getArtifactId());
-			hashMap.put(versionlessKey, newVersion.toString());
+	private void writeReport() {
+		report.endPhase();
+		getLog().info("version-range: " + report.getSummary());
+		if (reportFile != null) {
+			try {
+				report.write(reportFile, mavenProject.getId());
+			} catch (IOException e) {
+				getLog().warn(
+						"unable to write " + reportFile + ": " + e.getMessage());
+			}
 		}
-		return hashMap;
 	}
 
-	private Version resolveNewVersion(Artifact artifact)
-			throws MojoExecutionException {
-		VersionRangeRequest request = new VersionRangeRequest();
-		request.setArtifact(artifact);
-		request.setRepositories(remoteRepos);
-
-		getLog().debug(
-				"Resolving artifact " + artifact + " from " + remoteRepos);
-
-		VersionRangeResult rangeResult;
-		try {
-			rangeResult = repoSystem.resolveVersionRange(repoSession, request);
-		} catch (VersionRangeResolutionException e) {
-			e.printStackTrace();
-			throw new MojoExecutionException("unable to resolve versions for: "
-					+ artifact, e);
+	private LockFile getLockFile() throws MojoExecutionException {
+		File file = lockFile;
+		if (file == null) {
+			String rules = ReactorResolutionCache.rulesKey(
+					dependencyVersionRangePath, dependencyVersionRangeFile);
+			if (rules.endsWith(".properties")) {
+				rules = rules.substring(0, rules.length() - 11);
+			}
+			file = new File(rules + ".lock");
 		}
-		getLog().debug(
-				"artifactId: " + artifact.getArtifactId() + " - "
-						+ rangeResult.getVersions());
-		Version newestVersion = rangeResult.getHighestVersion();
-		return newestVersion;
+		final File lockFileToUse = file;
+		return reactorCache.getLockFile(file.getAbsolutePath()
+				+ (frozen ? "|frozen" : ""), new Callable<LockFile>() {
+			public LockFile call() throws MojoExecutionException {
+				LockFile lock = new LockFile(lockFileToUse);
+				if (frozen && !lockFileToUse.isFile()) {
+					throw new MojoExecutionException("lockfile "
+							+ lockFileToUse
+							+ " not found, run without frozen mode to create it");
+				}
+				// when writing, the versions resolved are merged into the
+				// existing entries
+				if (lockFileToUse.isFile()) {
+					try {
+						lock.load();
+					} catch (IOException e) {
+						throw new MojoExecutionException(
+								"unable to read lockfile " + lockFileToUse
+										+ ": " + e.getMessage(), e);
+					}
+				}
+				return lock;
+			}
+		});
 	}
 
-	private void rewriteArtifactVersions(Collection<Element> elements,
-			Map<String, String> mappedVersions,
-			Map<String, String> originalVersions, Model projectModel,
-			Element properties, Object result) throws MojoExecutionException {
-		if (elements == null) {
-			return;
+	/**
+	 * Writes all versions resolved in this build so far along with the
+	 * entries loaded, so the last module leaves the complete lockfile behind.
+	 */
+	private void saveLockFile() throws MojoExecutionException {
+		if (pruneLockFile) {
+			pruneLockFile();
+		}
+		try {
+			lock.write();
+			getLog().debug(
+					"wrote " + lock.size() + " locked versions to "
+							+ lock.getFile());
+		} catch (IOException e) {
+			throw new MojoExecutionException("unable to write lockfile "
+					+ lock.getFile() + ": " + e.getMessage(), e);
 		}
+	}
 
-		String projectId = ArtifactUtils.versionlessKey(
-				projectModel.getGroupId(), projectModel.getArtifactId());
-		for (Element element : elements) {
-			Element versionElement = element.getChild("version",
-					element.getNamespace());
-			if (versionElement == null) {
-				// managed dependency or unversioned plugin
+	/**
+	 * Removes the entries of rules that are neither exact rules nor the
+	 * wildcard rule matching their artifact.
+	 */
+	private void pruneLockFile() {
+		Set<String> exactRules = new HashSet<String>(
+				ruleCatalog.getExactRules());
+		for (String rule : new ArrayList<String>(lock.getRules())) {
+			if (exactRules.contains(rule)) {
 				continue;
 			}
-			String rawVersion = versionElement.getTextTrim();
-			Element groupIdElement = element.getChild("groupId",
-					element.getNamespace());
-			if (groupIdElement == null) {
-				if ("plugin".equals(element.getName())) {
-					groupIdElement = new Element("groupId",
-							element.getNamespace());
-					groupIdElement.setText("org.apache.maven.plugins");
-				} else {
-					// incomplete dependency
-					continue;
-				}
+			Artifact artifact;
+			try {
+				artifact = new DefaultArtifact(rule);
+			} catch (IllegalArgumentException e) {
+				artifact = null;
 			}
-			String groupId = VersionRangeUtils.interpolate(
-					groupIdElement.getTextTrim(), projectModel);
-
-			Element artifactIdElement = element.getChild("artifactId",
-					element.getNamespace());
-			if (artifactIdElement == null) {
-				// incomplete element
-				continue;
+			if (artifact == null
+					|| !rule.equals(ruleCatalog.match(artifact.getGroupId(),
+							artifact.getArtifactId()))) {
+				getLog().debug("removing " + rule + " from " + lock.getFile());
+				lock.remove(rule);
 			}
-			String artifactId = VersionRangeUtils.interpolate(
-					artifactIdElement.getTextTrim(), projectModel);
+		}
+	}
 
-			String key = ArtifactUtils.versionlessKey(groupId, artifactId);
-			String mappedVersion = mappedVersions.get(key);
-			String originalVersion = originalVersions.get(key);
+	/**
+	 * Fails if the lockfile has no entry for any of the exact rules, naming
+	 * all of them, before any POM is read.
+	 */
+	private void checkLockFile() throws MojoExecutionException {
+		List<String> missing = new ArrayList<String>();
+		for (String rule : ruleCatalog.getExactRules()) {
+			if (lock.get(rule) == null) {
+				missing.add(rule);
+			}
+		}
+		if (!missing.isEmpty()) {
+			Collections.sort(missing);
+			throw new MojoExecutionException("lockfile " + lock.getFile()
+					+ " has no entry for the rules " + missing
+					+ ", run without frozen mode to update it");
+		}
+	}
 
-			if (mappedVersion != null) {
-				if (rawVersion.equals(originalVersion)) {
-					getLog().info(
-							"Updating " + artifactId + " to " + mappedVersion);
-					VersionRangeUtils.rewriteValue(versionElement,
-							mappedVersion);
-				} else if (rawVersion.matches("\\$\\{.+\\}")) {
-					String expression = rawVersion.substring(2,
-							rawVersion.length() - 1);
-
-					if (expression.startsWith("project.")
-							|| expression.startsWith("pom.")
-							|| "version".equals(expression)) {
-						if (!mappedVersion
-								.equals(mappedVersions.get(projectId))) {
-							getLog().info(
-									"Updating " + artifactId + " to "
-											+ mappedVersion);
-							VersionRangeUtils.rewriteValue(versionElement,
-									mappedVersion);
-						} else {
-							getLog().info(
-									"Ignoring artifact version update for expression "
-											+ rawVersion);
-						}
-					} else if (properties != null) {
-						// version is an expression, check for properties to
-						// update instead
-						Element property = properties.getChild(expression,
-								properties.getNamespace());
-						if (property != null) {
-							String propertyValue = property.getTextTrim();
-
-							if (propertyValue.equals(originalVersion)) {
-								getLog().info(
-										"Updating " + rawVersion + " to "
-												+ mappedVersion);
-								// change the property only if the property is
-								// the same as what's in the reactor
-								VersionRangeUtils.rewriteValue(property,
-										mappedVersion);
-							} else if (mappedVersion.equals(propertyValue)) {
-								// this property may have been updated during
-								// processing a sibling.
-								getLog().info(
-										"Ignoring artifact version update for expression "
-												+ rawVersion
-												+ " because it is already updated");
-							} else if (!mappedVersion.equals(rawVersion)) {
-								if (mappedVersion.matches("\\$\\{project.+\\}")
-										|| mappedVersion
-												.matches("\\$\\{pom.+\\}")
-										|| "${version}".equals(mappedVersion)) {
-									getLog().info(
-											"Ignoring artifact version update for expression "
-													+ mappedVersion);
-									// ignore... we cannot update this
-									// expression
-								} else {
-									// the value of the expression conflicts
-									// with what the user wanted to release
-									throw new MojoExecutionException(
-											"The artifact (" + key
-													+ ") requires a "
-													+ "different version ("
-													+ mappedVersion
-													+ ") than what is found ("
-													+ propertyValue
-													+ ") for the expression ("
-													+ expression + ") in the "
-													+ "project (" + projectId
-													+ ").");
-								}
-							}
-						} else {
-							// the expression used to define the version of this
-							// artifact may be inherited
-							// TODO needs a better error message, what pom? what
-							// dependency?
-							throw new MojoExecutionException(
-									"The version could not be updated: "
-											+ rawVersion);
-						}
+	private LocalRepositoryIndex getLocalIndex() throws MojoExecutionException {
+		final File localRepository = repoSession.getLocalRepository()
+				.getBasedir();
+		final File file = localIndexFile != null ? localIndexFile : new File(
+				localRepository,
+				".cache/version-range-maven-plugin/local-index.bin");
+		return reactorCache.getLocalIndex(file.getAbsolutePath(),
+				new Callable<LocalRepositoryIndex>() {
+					public LocalRepositoryIndex call() {
+						return loadLocalIndex(localRepository, file);
 					}
+				});
+	}
+
+	private LocalRepositoryIndex loadLocalIndex(File localRepository, File file) {
+		LocalRepositoryIndex index = new LocalRepositoryIndex(localRepository,
+				file);
+		long start = System.currentTimeMillis();
+		try {
+			index.open();
+			int rescanned = index.refresh();
+			getLog().debug(
+					"indexed " + index.size() + " artifacts of " + localRepository
+							+ " (" + rescanned + " rescanned) in "
+							+ (System.currentTimeMillis() - start) + "ms");
+		} catch (IOException e) {
+			getLog().warn(
+					"unable to update local repository index " + file + ": "
+							+ e.getMessage());
+		}
+		return index;
+	}
+
+	/**
+	 * A POM read and transformed, but not written yet.
+	 */
+	static final class PendingPom {
+
+		final MavenProject project;
+
+		final File pomFile;
+
+		final Map<String, String> mappedVersions;
+
+		final Map<String, String> originalVersions;
+
+		final PomRewriter document;
+
+		PendingPom(MavenProject project, File pomFile,
+				Map<String, String> mappedVersions,
+				Map<String, String> originalVersions, PomRewriter document) {
+			this.project = project;
+			this.pomFile = pomFile;
+			this.mappedVersions = mappedVersions;
+			this.originalVersions = originalVersions;
+			this.document = document;
+		}
+	}
+
+	/**
+	 * Reads, transforms and writes the POM of the given project, recording
+	 * the phases in the given report. Updates of inherited properties are
+	 * written to the POMs defining them afterwards.
+	 */
+	void readWritePom(MavenProject project, ExecutionReport report)
+			throws MojoExecutionException {
+		PropertyChangePlan plan = new PropertyChangePlan();
+		PendingPom pom;
+		Lock pomLock = getPomLock(VersionRangeUtils.getStandardPom(project));
+		pomLock.lock();
+		try {
+			pom = preparePom(project, plan, report);
+			if (pom != null) {
+				report.startPhase("write");
+				report.setWritten(writeDocument(pom.pomFile, pom.document));
+			}
+		} finally {
+			pomLock.unlock();
+		}
+		if (pom != null) {
+			applyPlan(plan, Collections.<File, PomRewriter> emptyMap(), report);
+			writeFingerprint(pom);
+		}
+	}
+
+	/**
+	 * Reads and transforms the POM of the given project unless it references
+	 * no artifact with a rule or nothing changed since the last run. Only the
+	 * rules of the artifacts the project declares are resolved. Updates of
+	 * properties the project inherits are added to the plan.
+	 * 
+	 * @return the transformed POM, or <code>null</code> if it is skipped
+	 */
+	PendingPom preparePom(MavenProject project, PropertyChangePlan plan,
+			ExecutionReport report) throws MojoExecutionException {
+		// for overwriting:
+		File pomFile = VersionRangeUtils.getStandardPom(project);
+		// File pomFile = new File(project.getBasedir(), "newpom.xml");
+
+		report.startPhase("originalVersions");
+		Map<String, String> originalVersions = getOriginalVersionMap(project);
+		Set<String> declared = getDeclaredKeys(project, originalVersions);
+		if (prefilter) {
+			report.startPhase("prefilter");
+			if (!mightReference(pomFile, declared)) {
+				getLog().info(
+						"No artifact with a rule referenced, skipping "
+								+ pomFile);
+				report.setSkipped(true);
+				return null;
+			}
+		}
+
+		report.startPhase("resolution");
+		Map<String, String> mappedVersions = getMappedVersions(declared);
+		if (ruleCatalog.getWildcardCount() > 0) {
+			report.startPhase("wildcards");
+			mappedVersions = addWildcardVersions(mappedVersions,
+					originalVersions.keySet());
+		}
+
+		getLog().debug("mapped Versions (newer Versions):" + mappedVersions);
+		getLog().debug("original Versions: " + originalVersions);
+
+		report.startPhase("fingerprint");
+		if (skipUnchanged
+				&& computeFingerprint(project, mappedVersions, originalVersions)
+						.equals(Fingerprint.read(getFingerprintFile(project)))) {
+			getLog().info(
+					"Nothing changed since the last run, skipping " + pomFile);
+			report.setSkipped(true);
+			return null;
+		}
+
+		report.startPhase("parse");
+		PomRewriter document = readDocument(pomFile);
+
+		report.startPhase("transform");
+		transformDocument(project, document.getRootElement(), mappedVersions,
+				originalVersions, plan, report, false);
+		return new PendingPom(project, pomFile, mappedVersions,
+				originalVersions, document);
+	}
+
+	/**
+	 * Scans the raw POM for the artifactIds of the exact rules, and of the
+	 * declared artifacts a wildcard rule matches.
+	 */
+	private boolean mightReference(File pomFile, Set<String> declared)
+			throws MojoExecutionException {
+		byte[] bytes;
+		try {
+			bytes = Files.readAllBytes(pomFile.toPath());
+		} catch (IOException e) {
+			throw new MojoExecutionException("Error reading POM: "
+					+ e.getMessage(), e);
+		}
+		if (reactorCache.getPrefilter(ruleCatalog).mightReference(bytes)) {
+			return true;
+		}
+		if (ruleCatalog.getWildcardCount() == 0) {
+			return false;
+		}
+		List<String> matched = new ArrayList<String>();
+		for (String key : declared) {
+			int idx = key.indexOf(':');
+			if (idx >= 0
+					&& ruleCatalog.getExactRules(key).isEmpty()
+					&& ruleCatalog.match(key.substring(0, idx),
+							key.substring(idx + 1)) != null) {
+				matched.add(key);
+			}
+		}
+		return !matched.isEmpty()
+				&& ArtifactPrefilter.forKeys(matched).mightReference(bytes);
+	}
+
+	private static PomRewriter readDocument(File pomFile)
+			throws MojoExecutionException {
+		try {
+			return PomRewriter.read(pomFile);
+		} catch (XMLStreamException e) {
+			throw new MojoExecutionException("Error reading POM: "
+					+ e.getMessage(), e);
+		} catch (IOException e) {
+			throw new MojoExecutionException("Error reading POM: "
+					+ e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @return whether the document was modified and therefore written.
+	 */
+	boolean writeDocument(File pomFile, PomRewriter document)
+			throws MojoExecutionException {
+		if (!document.isModified()) {
+			getLog().debug("no versions changed, not writing " + pomFile);
+			return false;
+		}
+		VersionRangeUtils.writePom(pomFile, document, syncWrites);
+		return true;
+	}
+
+	/**
+	 * Stores the fingerprint of a POM, once it and the POMs it inherits from
+	 * are written.
+	 */
+	void writeFingerprint(PendingPom pom) throws MojoExecutionException {
+		if (!skipUnchanged) {
+			return;
+		}
+		File file = getFingerprintFile(pom.project);
+		try {
+			Fingerprint.write(file,
+					computeFingerprint(pom.project, pom.mappedVersions,
+							pom.originalVersions));
+		} catch (IOException e) {
+			getLog().warn("unable to write " + file + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the lock to hold while reading and writing the given POM
+	 */
+	Lock getPomLock(File pomFile) {
+		return reactorCache.getPomLocks().get(pomFile);
+	}
+
+	/**
+	 * Applies the planned updates of inherited properties. The documents in
+	 * the given map, by canonical file, are only updated; every other POM is
+	 * read, updated and written under its lock.
+	 */
+	void applyPlan(PropertyChangePlan plan, Map<File, PomRewriter> documents,
+			ExecutionReport report) throws MojoExecutionException {
+		if (plan.isEmpty()) {
+			return;
+		}
+		report.startPhase("inheritedProperties");
+		for (File file : plan.getFiles()) {
+			PomRewriter document = documents.get(file);
+			if (document != null) {
+				updateInheritedProperties(file, document, plan, report);
+				continue;
+			}
+			Lock lock = getPomLock(file);
+			lock.lock();
+			try {
+				document = readDocument(file);
+				updateInheritedProperties(file, document, plan, report);
+				writeDocument(file, document);
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	private void updateInheritedProperties(File file, PomRewriter document,
+			PropertyChangePlan plan, ExecutionReport report)
+			throws MojoExecutionException {
+		PomElement properties = document.getRootElement().getChild(
+				"properties");
+		for (Map.Entry<String, List<PropertyChangePlan.Update>> e : plan
+				.getUpdates(file).entrySet()) {
+			PomElement property = properties != null ? properties.getChild(e
+					.getKey()) : null;
+			if (property == null) {
+				throw new MojoExecutionException(
+						"The version could not be updated: ${" + e.getKey()
+								+ "} not found in " + file);
+			}
+			updateProperty(property, e.getKey(), e.getValue(), report);
+		}
+	}
+
+	/**
+	 * @return the fingerprint file of the given project, in its build
+	 *         directory unless it is the current one
+	 */
+	private File getFingerprintFile(MavenProject project) {
+		if (project == mavenProject || fingerprintFile == null) {
+			return fingerprintFile;
+		}
+		return new File(project.getBuild().getDirectory(),
+				fingerprintFile.getName());
+	}
+
+	/**
+	 * Hashes the POM, every POM it inherits from, the rules file, the resolved
+	 * versions and the original versions. An original version with a resolved
+	 * one is hashed as the resolved version, which it is once the POM is
+	 * written, so the fingerprint written after a rewrite matches the next run.
+	 */
+	private String computeFingerprint(MavenProject project,
+			Map<String, String> mappedVersions,
+			Map<String, String> originalVersions)
+			throws MojoExecutionException {
+		Map<String, String> expectedVersions = new HashMap<String, String>(
+				originalVersions);
+		for (Map.Entry<String, String> e : mappedVersions.entrySet()) {
+			if (expectedVersions.containsKey(e.getKey())) {
+				expectedVersions.put(e.getKey(), e.getValue());
+			}
+		}
+		try {
+			Fingerprint fingerprint = new Fingerprint()
+					.addFile(VersionRangeUtils.getStandardPom(project));
+			for (MavenProject parent = project.getParent(); parent != null; parent = parent
+					.getParent()) {
+				fingerprint.addFile(parent.getFile());
+			}
+			return fingerprint
+					.addFile(
+							new File(ReactorResolutionCache.rulesKey(
+									dependencyVersionRangePath,
+									dependencyVersionRangeFile)))
+					.addMap(mappedVersions).addMap(expectedVersions).toHex();
+		} catch (IOException e) {
+			throw new MojoExecutionException("Error reading POM: "
+					+ e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Loads the rules, once per build.
+	 */
+	void loadRules() throws MojoExecutionException {
+		if (ruleCatalog != null) {
+			return;
+		}
+		report.startPhase("rules");
+		final String rulesKey = ReactorResolutionCache.rulesKey(
+				dependencyVersionRangePath, dependencyVersionRangeFile);
+		ruleCatalog = reactorCache.getRules(rulesKey,
+				new Callable<RuleCatalog>() {
+					public RuleCatalog call() throws MojoExecutionException {
+						return loadRuleCatalog(new File(rulesKey));
+					}
+				});
+	}
+
+	/**
+	 * @return the newest versions of the exact rules for the given artifacts,
+	 *         including their parent lookups
+	 */
+	Map<String, String> getMappedVersions(Collection<String> declared)
+			throws MojoExecutionException {
+		List<String> rules = new ArrayList<String>();
+		for (String key : declared) {
+			rules.addAll(ruleCatalog.getExactRules(key));
+		}
+		return resolveRulesOnce(rules);
+	}
+
+	/**
+	 * Resolves the given rules, each only once per build: a rule is resolved
+	 * by the first module asking for it, and modules asking at the same time
+	 * wait for that. The version lists of the rules no module asked for yet
+	 * are fetched concurrently.
+	 */
+	private Map<String, String> resolveRulesOnce(List<String> rules)
+			throws MojoExecutionException {
+		String context = VersionRangeCache.repositoriesKey(remoteRepos)
+				+ (localIndex != null ? "|offline" : "") + "|" + versionFilter
+				+ (frozen ? "|frozen" : "") + "|";
+		if (!frozen) {
+			List<String> pending = new ArrayList<String>();
+			for (String rule : rules) {
+				if (!reactorCache.hasVersionMap(context + rule)) {
+					pending.add(rule);
+				}
+			}
+			prefetch(pending);
+		}
+		Map<String, String> versions = new HashMap<String, String>();
+		for (final String rule : rules) {
+			versions.putAll(reactorCache.getVersionMap(context + rule,
+					new Callable<Map<String, String>>() {
+						public Map<String, String> call()
+								throws MojoExecutionException {
+							return Collections.unmodifiableMap(resolveRules(Collections
+									.singletonList(rule)));
+						}
+					}));
+		}
+		return Collections.unmodifiableMap(versions);
+	}
+
+	private RuleCatalog loadRuleCatalog(File source)
+			throws MojoExecutionException {
+		if (jvmCache == null) {
+			return readRuleCatalog(source);
+		}
+		RuleCatalog catalog = jvmCache.getRules(source);
+		if (catalog == null) {
+			catalog = readRuleCatalog(source);
+			jvmCache.putRules(source, catalog);
+		}
+		return catalog;
+	}
+
+	private RuleCatalog readRuleCatalog(File source)
+			throws MojoExecutionException {
+		File compiled = null;
+		if (useCompiledRules) {
+			compiled = compiledRulesFile != null ? compiledRulesFile
+					: new File(repoSession.getLocalRepository().getBasedir(),
+							".cache/version-range-maven-plugin/rules-"
+									+ Integer.toHexString(source.getPath()
+											.hashCode()) + ".bin");
+			try {
+				RuleCatalog catalog = RuleCatalog.read(compiled, source);
+				if (catalog != null) {
+					getLog().debug("read compiled rules from " + compiled);
+					return catalog;
+				}
+			} catch (IOException e) {
+				getLog().warn(
+						"unable to read compiled rules " + compiled + ": "
+								+ e.getMessage());
+			}
+		}
+		RuleCatalog catalog = new RuleCatalog(
+				VersionRangeUtils.loadEagerDependencies(
+						dependencyVersionRangePath, dependencyVersionRangeFile));
+		if (compiled != null) {
+			try {
+				catalog.write(compiled, source);
+			} catch (IOException e) {
+				getLog().warn(
+						"unable to write compiled rules " + compiled + ": "
+								+ e.getMessage());
+			}
+		}
+		return catalog;
+	}
+
+	/**
+	 * Resolves the wildcard rules matching artifacts the project declares
+	 * which no exact rule covers.
+	 * 
+	 * @return the mapped versions including those of the matched rules
+	 */
+	private Map<String, String> addWildcardVersions(
+			Map<String, String> mappedVersions, Set<String> declared)
+			throws MojoExecutionException {
+		List<String> rules = new ArrayList<String>();
+		for (String key : declared) {
+			int idx = key.indexOf(':');
+			if (idx < 0 || mappedVersions.containsKey(key)) {
+				continue;
+			}
+			String rule = ruleCatalog.match(key.substring(0, idx),
+					key.substring(idx + 1));
+			if (rule != null) {
+				rules.add(rule);
+			}
+		}
+		if (rules.isEmpty()) {
+			return mappedVersions;
+		}
+		getLog().debug("matched wildcard rules: " + rules);
+		Map<String, String> versions = new HashMap<String, String>(
+				mappedVersions);
+		versions.putAll(resolveRulesOnce(rules));
+		return versions;
+	}
+
+	private Map<String, String> resolveRules(List<String> rules)
+			throws MojoExecutionException {
+		return frozen ? getLockedVersionMap(rules) : getNextVersionMap(rules);
+	}
+
+	/**
+	 * @return the versions the lockfile holds for the given rules
+	 */
+	private Map<String, String> getLockedVersionMap(List<String> rules)
+			throws MojoExecutionException {
+		List<String> missing = new ArrayList<String>();
+		HashMap<String, String> hashMap = new HashMap<String, String>();
+		for (String rule : rules) {
+			LockFile.Entry entry = lock.get(rule);
+			if (entry == null) {
+				missing.add(rule);
+				continue;
+			}
+			Artifact artifact = new DefaultArtifact(rule);
+			hashMap.put(ArtifactUtils.versionlessKey(artifact.getGroupId(),
+					artifact.getArtifactId()), entry.getVersion());
+		}
+		if (!missing.isEmpty()) {
+			throw new MojoExecutionException("lockfile " + lock.getFile()
+					+ " has no entry for the rules " + missing
+					+ ", run without frozen mode to update it");
+		}
+		return hashMap;
+	}
+
+	void transformDocument(MavenProject project,
+			PomElement rootElement, Map<String, String> mappedVersions,
+			Map<String, String> originalVersions, PropertyChangePlan plan,
+			ExecutionReport result, boolean simulate)
+			throws MojoExecutionException {
+		Model model = project.getModel();
+
+		// String parentVersion = EagerUpdateUtils.rewriteParent(project,
+		// rootElement, mappedVersions, originalVersions);
+		String parentVersion = VersionRangeUtils.rewriteParent(project,
+				rootElement, mappedVersions, originalVersions);
+		if (parentVersion != null) {
+			result.countRewrittenVersion();
+			FlightRecorderEvents.rewritten("parent", project.getParent()
+					.getId(), project.getParent().getVersion(), parentVersion);
+		}
+
+		PomIndex index = new PomIndex(rootElement, new ModelInterpolator(model));
+		getLog().debug("indexed " + index.size() + " versioned artifacts");
+
+		rewriteArtifactVersions(index, mappedVersions, originalVersions,
+				project, plan, result);
+	}
+
+	// private Map<String, String> getOriginalVersionMap(List<MavenProject>
+	// reactorProjects) {
+	Map<String, String> getOriginalVersionMap(MavenProject projects) {
+		HashMap<String, String> hashMap = new HashMap<String, String>();
+
+		// TODO depmgmt, parent ...
+		if (projects.getParentArtifact() != null) {
+			hashMap.put(ArtifactUtils.versionlessKey(projects
+					.getParentArtifact().getGroupId(), projects
+					.getParentArtifact().getArtifactId()), projects
+					.getParentArtifact().getArtifactId());
+		}
+		hashMap.putAll(buildVersionsMap(projects.getDependencies()));
+		if (projects.getDependencyManagement() != null) {
+			hashMap.putAll(buildVersionsMap(projects.getDependencyManagement()
+					.getDependencies()));
+		}
+		hashMap.putAll(buildPluginVersionsMap(projects.getBuildPlugins()));
+		if (projects.getPluginManagement() != null) {
+			hashMap.putAll(buildPluginVersionsMap(projects
+					.getPluginManagement().getPlugins()));
+		}
+		for (Extension extension : projects.getBuildExtensions()) {
+			hashMap.put(ArtifactUtils.versionlessKey(extension.getGroupId(),
+					extension.getArtifactId()), extension.getVersion());
+		}
+
+		for (Profile profile : projects.getActiveProfiles()) {
+			hashMap.putAll(buildProfileVersionsMap(profile));
+		}
+
+		return hashMap;
+	}
+
+	private Map<String, String> buildProfileVersionsMap(Profile profile) {
+		Map<String, String> hashMap = new HashMap<String, String>();
+		hashMap.putAll(buildVersionsMap(profile.getDependencies()));
+		if (profile.getDependencyManagement() != null) {
+			hashMap.putAll(buildVersionsMap(profile.getDependencyManagement()
+					.getDependencies()));
+		}
+		BuildBase build = profile.getBuild();
+		if (build != null) {
+			hashMap.putAll(buildPluginVersionsMap(build.getPlugins()));
+			if (build.getPluginManagement() != null) {
+				hashMap.putAll(buildPluginVersionsMap(build
+						.getPluginManagement().getPlugins()));
+			}
+		}
+		return hashMap;
+	}
+
+	/**
+	 * @return the keys of the artifacts the POM of the project may reference:
+	 *         those with an original version, the project itself and the
+	 *         artifacts of its inactive profiles
+	 */
+	private Set<String> getDeclaredKeys(MavenProject project,
+			Map<String, String> originalVersions) {
+		Set<String> keys = new HashSet<String>(originalVersions.keySet());
+		keys.add(ArtifactUtils.versionlessKey(project.getGroupId(),
+				project.getArtifactId()));
+		for (Profile profile : project.getModel().getProfiles()) {
+			keys.addAll(buildProfileVersionsMap(profile).keySet());
+		}
+		return keys;
+	}
+
+	private Map<String, String> buildPluginVersionsMap(List<Plugin> plugins) {
+		Map<String, String> hashMap = new HashMap<String, String>();
+		for (Plugin plugin : plugins) {
+			String versionlessKey = ArtifactUtils.versionlessKey(
+					plugin.getGroupId(), plugin.getArtifactId());
+			hashMap.put(versionlessKey, plugin.getVersion());
+		}
+		return hashMap;
+	}
+
+	private Map<String, String> buildVersionsMap(List<Dependency> dependencies) {
+		Map<String, String> hashMap = new HashMap<String, String>();
+		for (Dependency dep : dependencies) {
+			String currentVersion = dep.getVersion();
+			String versionlessKey = ArtifactUtils.versionlessKey(
+					dep.getGroupId(), dep.getArtifactId());
+			hashMap.put(versionlessKey, currentVersion);
+		}
+		return hashMap;
+	}
+
+	/**
+	 * Resolves all rules. The versions of an artifact are fetched only once,
+	 * however many rules refer to it, and every range is evaluated against
+	 * that list.
+	 */
+	Map<String, String> getNextVersionMap(List<String> eagerArtifacts)
+			throws MojoExecutionException {
+		PackedVersions.Filter filter;
+		try {
+			filter = PackedVersions.Filter.parse(versionFilter);
+		} catch (IllegalArgumentException e) {
+			throw new MojoExecutionException(e.getMessage(), e);
+		}
+		prefetch(eagerArtifacts);
+
+		HashMap<String, String> hashMap = new HashMap<String, String>();
+		for (String s : eagerArtifacts) {
+			Artifact artifact = new DefaultArtifact(s);
+			String newVersion = resolveNewVersion(s, artifact, filter);
+			String versionlessKey = ArtifactUtils.versionlessKey(
+					artifact.getGroupId(), artifact.getArtifactId());
+			hashMap.put(versionlessKey, newVersion);
+		}
+		return hashMap;
+	}
+
+	/**
+	 * Fetches the version lists of the ranges among the given rules
+	 * concurrently, if more than one resolution thread is configured.
+	 */
+	private void prefetch(List<String> rules) throws MojoExecutionException {
+		Map<String, Artifact> versionLists = new LinkedHashMap<String, Artifact>();
+		for (String s : rules) {
+			Artifact artifact = new DefaultArtifact(s);
+			String versionlessKey = ArtifactUtils.versionlessKey(
+					artifact.getGroupId(), artifact.getArtifactId());
+			if (parseConstraint(artifact).getRange() != null
+					&& !versionLists.containsKey(versionlessKey)) {
+				versionLists.put(versionlessKey, allVersionsOf(artifact));
+			}
+		}
+		getLog().debug(
+				"resolving " + rules.size() + " rules against "
+						+ versionLists.size() + " version lists");
+		if (resolutionThreads > 1 && versionLists.size() > 1) {
+			fetchConcurrently(versionLists.values());
+		}
+	}
+
+	/**
+	 * Fetches the version lists of the given artifacts all at once, so the
+	 * rules can be evaluated from the reactor cache afterwards.
+	 */
+	private void fetchConcurrently(Collection<Artifact> artifacts)
+			throws MojoExecutionException {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(
+				resolutionThreads, artifacts.size()));
+		try {
+			List<FetchTask> tasks = new ArrayList<FetchTask>();
+			List<Future<PackedVersions>> futures = new ArrayList<Future<PackedVersions>>();
+			for (Artifact artifact : artifacts) {
+				FetchTask task = new FetchTask(artifact);
+				tasks.add(task);
+				futures.add(executor.submit(task));
+			}
+
+			MojoExecutionException failure = null;
+			for (int i = 0; i < tasks.size(); i++) {
+				try {
+					awaitVersions(futures.get(i), tasks.get(i));
+				} catch (MojoExecutionException e) {
+					getLog().error(e.getMessage());
+					if (failure == null) {
+						failure = e;
+					}
+				}
+			}
+			if (failure != null) {
+				throw failure;
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private PackedVersions awaitVersions(Future<PackedVersions> future,
+			FetchTask task) throws MojoExecutionException {
+		long timeoutMillis = TimeUnit.SECONDS.toMillis(resolutionTimeout);
+		// a request that already ran for a while gets only the rest of its
+		// time, but no request is waited for longer than the timeout
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		long started = task.started;
+		if (started != 0) {
+			deadline = Math.min(deadline, started + timeoutMillis);
+		}
+		try {
+			return future.get(Math.max(0, deadline - System.currentTimeMillis()),
+					TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			future.cancel(true);
+			throw new MojoExecutionException("timed out resolving versions for: "
+					+ task.artifact + " after " + resolutionTimeout + "s"
+					+ (task.started == 0 ? ", waiting for a free thread" : ""),
+					e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MojoExecutionException(
+					"interrupted while resolving versions for: "
+							+ task.artifact, e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof MojoExecutionException) {
+				throw (MojoExecutionException) e.getCause();
+			}
+			throw new MojoExecutionException(
+					"unable to resolve versions for: " + task.artifact,
+					e.getCause());
+		}
+	}
+
+	private class FetchTask implements Callable<PackedVersions> {
+
+		private final Artifact artifact;
+
+		private volatile long started;
+
+		FetchTask(Artifact artifact) {
+			this.artifact = artifact;
+		}
+
+		public PackedVersions call() throws MojoExecutionException {
+			started = System.currentTimeMillis();
+			return getAvailableVersions(artifact);
+		}
+	}
+
+	/**
+	 * Resolves the range like Aether does: a plain version is taken as is,
+	 * otherwise the highest available version within the range that passes
+	 * the filter wins. The version is added to the lockfile, if any.
+	 */
+	private String resolveNewVersion(String rule, Artifact artifact,
+			PackedVersions.Filter filter) throws MojoExecutionException {
+		Object event = FlightRecorderEvents.beginResolution();
+		String result = "failed";
+		try {
+			result = resolveRange(rule, artifact, filter);
+			return result;
+		} catch (MojoExecutionException e) {
+			result = "failed: " + e.getMessage();
+			throw e;
+		} finally {
+			FlightRecorderEvents.endResolution(event, ArtifactUtils
+					.versionlessKey(artifact.getGroupId(),
+							artifact.getArtifactId()), artifact.getVersion(),
+					result);
+		}
+	}
+
+	private String resolveRange(String rule, Artifact artifact,
+			PackedVersions.Filter filter) throws MojoExecutionException {
+		VersionConstraint constraint = parseConstraint(artifact);
+		if (constraint.getRange() == null) {
+			String version = constraint.getVersion().toString();
+			if (lock != null) {
+				lock.put(rule, version, null, System.currentTimeMillis());
+			}
+			return version;
+		}
+
+		PackedVersions versions = getAvailableVersions(allVersionsOf(artifact));
+		String newestVersion;
+		try {
+			newestVersion = versions.findHighest(constraint, filter);
+		} catch (InvalidVersionSpecificationException e) {
+			throw new MojoExecutionException("invalid version of " + artifact,
+					e);
+		}
+		if (newestVersion == null) {
+			throw new MojoExecutionException("no version of " + artifact
+					+ " found"
+					+ (localIndex != null ? " in the local repository" : ""));
+		}
+		getLog().debug(
+				"artifactId: " + artifact.getArtifactId() + " - "
+						+ artifact.getVersion() + " -> " + newestVersion);
+		if (lock != null) {
+			lock.put(rule, newestVersion, versions.getSource(newestVersion),
+					versions.getTimestamp());
+		}
+		return newestVersion;
+	}
+
+	private VersionConstraint parseConstraint(Artifact artifact)
+			throws MojoExecutionException {
+		try {
+			return VERSION_SCHEME.parseVersionConstraint(artifact.getVersion());
+		} catch (InvalidVersionSpecificationException e) {
+			throw new MojoExecutionException("invalid version range: "
+					+ artifact, e);
+		}
+	}
+
+	/**
+	 * @return the artifact whose range matches every version, independent of
+	 *         classifier and extension.
+	 */
+	private static Artifact allVersionsOf(Artifact artifact) {
+		return new DefaultArtifact(artifact.getGroupId(),
+				artifact.getArtifactId(), "pom", ALL_VERSIONS);
+	}
+
+	/**
+	 * @return all versions of the given artifact, fetched at most once per
+	 *         build
+	 */
+	private PackedVersions getAvailableVersions(final Artifact artifact)
+			throws MojoExecutionException {
+		final String cacheKey = VersionRangeCache.key(artifact, remoteRepos);
+		if (localIndex != null) {
+			return reactorCache.getVersions(cacheKey + "|offline",
+					new Callable<PackedVersions>() {
+						public PackedVersions call() {
+							return getLocalVersions(artifact);
+						}
+					});
+		}
+		return reactorCache.getVersions(cacheKey,
+				new Callable<PackedVersions>() {
+					public PackedVersions call() throws MojoExecutionException {
+						return fetchVersionsOnce(artifact, cacheKey);
+					}
+				});
+	}
+
+	/**
+	 * @return the versions kept by the JVM cache, fetching them if it has none
+	 */
+	private PackedVersions fetchVersionsOnce(Artifact artifact, String cacheKey)
+			throws MojoExecutionException {
+		if (jvmCache == null) {
+			return fetchVersions(artifact, cacheKey);
+		}
+		long start = System.nanoTime();
+		PackedVersions versions = jvmCache.getVersions(cacheKey);
+		if (versions != null) {
+			report.addFetch(ArtifactUtils.versionlessKey(artifact.getGroupId(),
+					artifact.getArtifactId()), "jvm", System.nanoTime() - start);
+			return versions;
+		}
+		versions = fetchVersions(artifact, cacheKey);
+		jvmCache.putVersions(cacheKey, versions);
+		return versions;
+	}
+
+	private PackedVersions fetchVersions(Artifact artifact, String cacheKey)
+			throws MojoExecutionException {
+		long start = System.nanoTime();
+		String versionlessKey = ArtifactUtils.versionlessKey(
+				artifact.getGroupId(), artifact.getArtifactId());
+		if (resolutionCache != null) {
+			VersionRangeCache.Entry entry = resolutionCache.getFresh(cacheKey);
+			if (entry == null && resolutionCacheRevalidate) {
+				entry = revalidate(artifact, cacheKey);
+			}
+			if (entry != null) {
+				getLog().debug(
+						"artifactId: " + artifact.getArtifactId()
+								+ " - (cached) " + entry.getVersions());
+				report.addFetch(versionlessKey, "cached", System.nanoTime()
+						- start);
+				return new PackedVersions(entry.getVersions(), "cache", null,
+						entry.getTimestamp());
+			}
+			checkBackoff(artifact, cacheKey);
+		}
+
+		List<RemoteRepository> repositories = circuitBreaker != null ? circuitBreaker
+				.filter(remoteRepos) : remoteRepos;
+		if (repositories.isEmpty() && !remoteRepos.isEmpty()) {
+			throw new MojoExecutionException("unable to resolve versions for: "
+					+ artifact + ", every repository is skipped: "
+					+ circuitBreaker.getStats());
+		}
+		boolean complete = repositories.size() == remoteRepos.size();
+		try {
+			if (hedgedResolution && repositories.size() > 1) {
+				return fetchHedged(artifact, cacheKey, repositories, complete,
+						start);
+			}
+			return fetchRemote(artifact, cacheKey, repositories, complete,
+					start);
+		} catch (MojoExecutionException e) {
+			if (resolutionCache != null && negativeCacheBackoff > 0) {
+				resolutionCache.putFailure(cacheKey,
+						e.getCause() != null ? e.getCause().getMessage() : e
+								.getMessage());
+			}
+			throw e;
+		} finally {
+			if (circuitBreaker != null) {
+				for (String event : circuitBreaker.drainEvents()) {
+					getLog().warn("version-range: " + event);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fails if resolving the range failed before and its backoff is not over.
+	 */
+	private void checkBackoff(Artifact artifact, String cacheKey)
+			throws MojoExecutionException {
+		VersionRangeCache.Failure failure = resolutionCache
+				.getFailure(cacheKey);
+		if (failure == null || negativeCacheBackoff <= 0) {
+			return;
+		}
+		long wait = failure.getRetryAt(
+				TimeUnit.SECONDS.toMillis(negativeCacheBackoff),
+				TimeUnit.SECONDS.toMillis(negativeCacheMaxBackoff))
+				- System.currentTimeMillis();
+		if (wait > 0) {
+			throw new MojoExecutionException("unable to resolve versions for: "
+					+ artifact + ", failed " + failure.getCount()
+					+ (failure.getCount() == 1 ? " time" : " times in a row")
+					+ ", not tried again for the next "
+					+ TimeUnit.MILLISECONDS.toSeconds(wait + 999) + "s: "
+					+ failure.getMessage());
+		}
+	}
+
+	/**
+	 * Asks the given repositories in a single request. Only a resolution
+	 * every remote repository took part in is stored in the persistent cache.
+	 */
+	private PackedVersions fetchRemote(Artifact artifact, String cacheKey,
+			List<RemoteRepository> repositories, boolean complete, long start)
+			throws MojoExecutionException {
+		VersionRangeRequest request = new VersionRangeRequest();
+		request.setArtifact(artifact);
+		request.setRepositories(repositories);
+
+		getLog().debug(
+				"Resolving artifact " + artifact + " from " + repositories);
+
+		VersionRangeResult rangeResult;
+		Object event = FlightRecorderEvents.beginFetch();
+		String result = "failed";
+		try {
+			rangeResult = repoSystem.resolveVersionRange(repoSession, request);
+			result = rangeResult.getVersions().size() + " versions";
+		} catch (VersionRangeResolutionException e) {
+			result = "failed: " + e.getMessage();
+			throw new MojoExecutionException("unable to resolve versions for: "
+					+ artifact, e);
+		} finally {
+			FlightRecorderEvents.endFetch(event, ArtifactUtils.versionlessKey(
+					artifact.getGroupId(), artifact.getArtifactId()),
+					"single", repositories.size(), result);
+		}
+		Exception failure = recordRepositoryFailures(repositories, rangeResult);
+		if (rangeResult.getVersions().isEmpty() && failure != null) {
+			throw new MojoExecutionException("unable to resolve versions for: "
+					+ artifact, failure);
+		}
+		getLog().debug(
+				"artifactId: " + artifact.getArtifactId() + " - "
+						+ rangeResult.getVersions());
+		VersionRangeCache.Entry entry = toCacheEntry(
+				System.currentTimeMillis(), rangeResult);
+		if (resolutionCache != null && complete && failure == null) {
+			resolutionCache.put(cacheKey, entry);
+		}
+		Map<String, String> versionRepositories = new HashMap<String, String>();
+		for (Version version : rangeResult.getVersions()) {
+			ArtifactRepository repository = rangeResult.getRepository(version);
+			if (repository != null) {
+				versionRepositories.put(version.toString(), repository.getId());
+			}
+		}
+		report.addFetch(ArtifactUtils.versionlessKey(artifact.getGroupId(),
+				artifact.getArtifactId()), "remote", System.nanoTime() - start);
+		return new PackedVersions(entry.getVersions(), "remote",
+				versionRepositories, entry.getTimestamp());
+	}
+
+	/**
+	 * Records every repository of the request as failed or answering with the
+	 * circuit breaker.
+	 * 
+	 * @return the first failure of a repository, or <code>null</code>.
+	 */
+	private Exception recordRepositoryFailures(
+			List<RemoteRepository> repositories, VersionRangeResult rangeResult) {
+		Exception failure = null;
+		Set<String> failed = new HashSet<String>();
+		for (Exception e : rangeResult.getExceptions()) {
+			if (RepositoryCircuitBreaker.isFailure(e)) {
+				RemoteRepository repository = ((MetadataTransferException) e)
+						.getRepository();
+				if (repository != null) {
+					failed.add(repository.getId());
+				}
+				if (failure == null) {
+					failure = e;
+				}
+			}
+		}
+		if (circuitBreaker != null) {
+			for (RemoteRepository repository : repositories) {
+				if (failed.contains(repository.getId())) {
+					circuitBreaker.recordFailure(repository);
 				} else {
+					circuitBreaker.recordSuccess(repository);
+				}
+			}
+		}
+		return failure;
+	}
+
+	/**
+	 * Asks every remote repository on its own. Only a resolution every
+	 * repository took part in is stored in the persistent cache.
+	 */
+	private PackedVersions fetchHedged(Artifact artifact, String cacheKey,
+			List<RemoteRepository> repositories, boolean complete, long start)
+			throws MojoExecutionException {
+		HedgedVersionResolver.Result result = new HedgedVersionResolver(
+				repoSystem, repoSession, reactorCache.getHedgeExecutor(),
+				reactorCache.getRepositoryLatencies(), circuitBreaker,
+				TimeUnit.SECONDS.toMillis(hedgedProbeInterval)).resolve(
+				artifact, repositories, hedgedQuorum, hedgedDeadline,
+				TimeUnit.SECONDS.toMillis(resolutionTimeout));
+		getLog().debug(
+				"artifactId: " + artifact.getArtifactId() + " - (hedged, from "
+						+ result.getAnswered() + ", without "
+						+ result.getMissing() + ") " + result.getVersions());
+		if (resolutionCache != null && complete && result.isComplete()) {
+			resolutionCache.put(cacheKey, new VersionRangeCache.Entry(
+					System.currentTimeMillis(), result.getVersions()));
+		}
+		report.addFetch(ArtifactUtils.versionlessKey(artifact.getGroupId(),
+				artifact.getArtifactId()), "hedged", System.nanoTime() - start);
+		return new PackedVersions(result.getVersions(), "remote",
+				result.getRepositories(), System.currentTimeMillis());
+	}
+
+	/**
+	 * @return the versions the local repository index knows.
+	 */
+	private PackedVersions getLocalVersions(Artifact artifact) {
+		long start = System.nanoTime();
+		List<String> versions = localIndex.getVersions(artifact.getGroupId(),
+				artifact.getArtifactId());
+		getLog().debug(
+				"artifactId: " + artifact.getArtifactId() + " - (offline) "
+						+ versions);
+		report.addFetch(ArtifactUtils.versionlessKey(artifact.getGroupId(),
+				artifact.getArtifactId()), "offline", System.nanoTime() - start);
+		return new PackedVersions(versions != null ? versions
+				: Collections.<String> emptyList(), "local", null,
+				System.currentTimeMillis());
+	}
+
+	/**
+	 * Resolves the range offline if the local repository metadata was
+	 * refreshed after the cache entry was stored and is still within the TTL.
+	 */
+	private VersionRangeCache.Entry revalidate(Artifact artifact,
+			String cacheKey) {
+		long metadataTimestamp = VersionRangeCache.getLocalMetadataTimestamp(
+				repoSession.getLocalRepository().getBasedir(), artifact);
+		VersionRangeCache.Entry stale = resolutionCache.get(cacheKey);
+		if (!resolutionCache.isFresh(metadataTimestamp)
+				|| (stale != null && metadataTimestamp <= stale.getTimestamp())) {
+			return null;
+		}
+
+		DefaultRepositorySystemSession offlineSession = new DefaultRepositorySystemSession(
+				repoSession);
+		offlineSession.setOffline(true);
+		VersionRangeRequest request = new VersionRangeRequest();
+		request.setArtifact(artifact);
+		request.setRepositories(remoteRepos);
+		try {
+			VersionRangeResult rangeResult = repoSystem.resolveVersionRange(
+					offlineSession, request);
+			if (rangeResult.getVersions().isEmpty()) {
+				return null;
+			}
+			VersionRangeCache.Entry entry = toCacheEntry(metadataTimestamp,
+					rangeResult);
+			resolutionCache.put(cacheKey, entry);
+			return entry;
+		} catch (VersionRangeResolutionException e) {
+			getLog().debug(
+					"offline revalidation failed for " + artifact + ": "
+							+ e.getMessage());
+			return null;
+		}
+	}
+
+	private VersionRangeCache.Entry toCacheEntry(long timestamp,
+			VersionRangeResult rangeResult) {
+		List<String> versions = new ArrayList<String>();
+		for (Version version : rangeResult.getVersions()) {
+			versions.add(version.toString());
+		}
+		return new VersionRangeCache.Entry(timestamp, versions);
+	}
+
+	private void rewriteArtifactVersions(PomIndex index,
+			Map<String, String> mappedVersions,
+			Map<String, String> originalVersions, MavenProject project,
+			PropertyChangePlan plan, ExecutionReport result)
+			throws MojoExecutionException {
+		Model projectModel = project.getModel();
+		String projectId = ArtifactUtils.versionlessKey(
+				projectModel.getGroupId(), projectModel.getArtifactId());
+		for (String key : index.getKeys()) {
+			String mappedVersion = mappedVersions.get(key);
+			if (mappedVersion == null) {
+				// artifact not related to current release
+				getLog().debug("artifact not related to current release: " + key);
+				continue;
+			}
+			String originalVersion = originalVersions.get(key);
+
+			for (PomIndex.Reference reference : index.getReferences(key)) {
+				String rawVersion = reference.getRawVersion();
+				String expression = reference.getVersionExpression();
+				if (rawVersion.equals(originalVersion)) {
+					getLog().info(
+							"Updating " + reference.getArtifactId() + " to "
+									+ mappedVersion);
+					VersionRangeUtils.rewriteValue(
+							reference.getVersionElement(), mappedVersion);
+					result.countRewrittenVersion();
+					FlightRecorderEvents.rewritten("version", key, rawVersion,
+							mappedVersion);
+				} else if (expression == null) {
 					// different/previous version not related to current release
 					getLog().debug(
 							"different/previous version not related to current release");
+				} else if (isProjectExpression(expression)) {
+					if (!mappedVersion.equals(mappedVersions.get(projectId))) {
+						getLog().info(
+								"Updating " + reference.getArtifactId()
+										+ " to " + mappedVersion);
+						VersionRangeUtils.rewriteValue(
+								reference.getVersionElement(), mappedVersion);
+						result.countRewrittenVersion();
+						FlightRecorderEvents.rewritten("version", key,
+								rawVersion, mappedVersion);
+					} else {
+						getLog().info(
+								"Ignoring artifact version update for expression "
+										+ rawVersion);
+					}
+				}
+				// properties are decided below, once for all their references
+			}
+		}
+
+		for (String expression : index.getVersionExpressions()) {
+			if (!isProjectExpression(expression)) {
+				rewriteProperty(index, expression, mappedVersions,
+						originalVersions, project, projectId, plan, result);
+			}
+		}
+	}
+
+	private static boolean isProjectExpression(String expression) {
+		return expression.startsWith("project.")
+				|| expression.startsWith("pom.") || "version".equals(expression);
+	}
+
+	/**
+	 * Updates a property used as version by artifacts with a rule. If the
+	 * project inherits the property, the update is planned for the POM of the
+	 * reactor defining it instead.
+	 */
+	private void rewriteProperty(PomIndex index, String expression,
+			Map<String, String> mappedVersions,
+			Map<String, String> originalVersions, MavenProject project,
+			String projectId, PropertyChangePlan plan, ExecutionReport result)
+			throws MojoExecutionException {
+		String rawVersion = "${" + expression + "}";
+		Set<String> keys = new LinkedHashSet<String>();
+		for (PomIndex.Reference reference : index
+				.getReferencesToProperty(expression)) {
+			String key = reference.getKey();
+			if (mappedVersions.containsKey(key)
+					&& !rawVersion.equals(originalVersions.get(key))) {
+				keys.add(key);
+			}
+		}
+		List<PropertyChangePlan.Update> updates = new ArrayList<PropertyChangePlan.Update>();
+		for (String key : keys) {
+			updates.add(new PropertyChangePlan.Update(key, originalVersions
+					.get(key), mappedVersions.get(key), projectId));
+		}
+		if (updates.isEmpty()) {
+			return;
+		}
+
+		// version is an expression, check for properties to update instead
+		PomElement properties = index.getProperties();
+		PomElement property = properties != null ? properties
+				.getChild(expression) : null;
+		if (property == null) {
+			planInheritedProperty(project, expression, updates, plan);
+			return;
+		}
+		updateProperty(property, expression, updates, result);
+	}
+
+	/**
+	 * Plans the update of a property the project inherits for the nearest
+	 * POM it inherits from that defines the property. Fails if no POM defines
+	 * it or that POM is not part of the reactor.
+	 */
+	private void planInheritedProperty(MavenProject project,
+			String expression, List<PropertyChangePlan.Update> updates,
+			PropertyChangePlan plan) throws MojoExecutionException {
+		List<String> keys = new ArrayList<String>();
+		for (PropertyChangePlan.Update update : updates) {
+			keys.add(update.getKey());
+		}
+		for (MavenProject parent = project.getParent(); parent != null; parent = parent
+				.getParent()) {
+			if (parent.getOriginalModel().getProperties()
+					.containsKey(expression)) {
+				File parentFile = getReactorPom(parent);
+				if (parentFile == null) {
+					throw new MojoExecutionException(
+							"The version could not be updated: ${"
+									+ expression + "} for " + keys
+									+ " is defined in " + parent.getId()
+									+ ", which is not part of the reactor");
+				}
+				getLog().debug(
+						"planning the update of ${" + expression + "} for "
+								+ keys + " in " + parentFile);
+				for (PropertyChangePlan.Update update : updates) {
+					plan.add(parentFile, expression, update);
+				}
+				return;
+			}
+		}
+		// TODO needs a better error message, what pom? what dependency?
+		throw new MojoExecutionException("The version could not be updated: ${"
+				+ expression + "}");
+	}
+
+	/**
+	 * @return the canonical POM file of the given project if it is part of
+	 *         the reactor, otherwise <code>null</code>
+	 */
+	private File getReactorPom(MavenProject project) {
+		if (project.getFile() == null) {
+			return null;
+		}
+		File file = PropertyChangePlan.canonical(project.getFile());
+		return getReactorPoms().contains(file) ? file : null;
+	}
+
+	private synchronized Set<File> getReactorPoms() {
+		if (reactorPoms == null) {
+			reactorPoms = new HashSet<File>();
+			if (reactorProjects != null) {
+				for (MavenProject reactorProject : reactorProjects) {
+					if (reactorProject.getFile() != null) {
+						reactorPoms.add(PropertyChangePlan
+								.canonical(reactorProject.getFile()));
+					}
+				}
+			}
+		}
+		return reactorPoms;
+	}
+
+	/**
+	 * Updates the property for every artifact referencing it, checking each
+	 * one against the current value of the property, in order. The current
+	 * value includes updates not written yet, like those of the project
+	 * itself when the plan is applied to a POM already transformed.
+	 */
+	private void updateProperty(PomElement property, String expression,
+			List<PropertyChangePlan.Update> updates, ExecutionReport result)
+			throws MojoExecutionException {
+		String rawVersion = "${" + expression + "}";
+		String propertyValue = property.getDocument().getValue(property);
+		for (PropertyChangePlan.Update update : updates) {
+			String mappedVersion = update.getMappedVersion();
+			String originalVersion = update.getOriginalVersion();
+			if (propertyValue.equals(originalVersion)) {
+				getLog().info("Updating " + rawVersion + " to " + mappedVersion);
+				// change the property only if the property is the same as
+				// what's in the reactor
+				VersionRangeUtils.rewriteValue(property, mappedVersion);
+				result.countRewrittenProperty();
+				FlightRecorderEvents.rewritten("property", expression,
+						propertyValue, mappedVersion);
+				propertyValue = mappedVersion;
+			} else if (mappedVersion.equals(propertyValue)) {
+				// this property has been updated for a sibling
+				getLog().info(
+						"Ignoring artifact version update for expression "
+								+ rawVersion + " because it is already updated");
+			} else if (!mappedVersion.equals(rawVersion)) {
+				if (mappedVersion.matches("\\$\\{project.+\\}")
+						|| mappedVersion.matches("\\$\\{pom.+\\}")
+						|| "${version}".equals(mappedVersion)) {
+					getLog().info(
+							"Ignoring artifact version update for expression "
+									+ mappedVersion);
+					// ignore... we cannot update this expression
+				} else {
+					// the value of the expression conflicts with what the user
+					// wanted to release
+					throw new MojoExecutionException("The artifact ("
+							+ update.getKey() + ") requires a "
+							+ "different version (" + mappedVersion
+							+ ") than what is found (" + propertyValue
+							+ ") for the expression (" + expression
+							+ ") in the " + "project (" + update.getProject()
+							+ ").");
 				}
-			} else {
-				// artifact not related to current release
-				getLog().debug("artifact not related to current release");
 			}
 		}
 	}
-}
\ No newline at end of file
+}
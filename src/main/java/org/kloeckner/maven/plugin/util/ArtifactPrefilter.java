@@ -0,0 +1,216 @@
+package org.kloeckner.maven.plugin.util;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Decides from the raw bytes of a POM whether it may reference any of the given artifacts, without decoding or parsing
+ * it.
+ * <p>
+ * A POM declaring an artifact contains its artifactId as the text of an element, so the POM is scanned once for
+ * <code>&gt;artifactId&lt;</code> of all artifacts with an Aho-Corasick automaton. Whitespace is skipped, so a token
+ * matches with whitespace around the artifactId, and a property <code>lib.version</code> or an element
+ * <code>&lt;libs&gt;</code> does not match the artifactId <code>lib</code>. The automaton is a table indexed by state
+ * and byte class: only the bytes occurring in the patterns get a class of their own, all others share one, which keeps
+ * the table small. A match is not proof of a reference, e.g. the artifactId of the project itself matches, but no match
+ * proves there is none.
+ * <p>
+ * POMs the scan can't see through are assumed to match: POMs encoded in UTF-16 or UTF-32, POMs containing character
+ * references or CDATA sections and POMs with an artifactId starting or ending with a property reference, like
+ * <code>${shared.lib}</code> defined in a parent or <code>${project.artifactId}-api</code>.
+ */
+public class ArtifactPrefilter {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+	/** byte to class, 0 for the bytes occurring in no pattern */
+	private final int[] classes = new int[256];
+
+	/** the class of the whitespace bytes, which leave the state as it is */
+	private final int whitespace;
+
+	private final int classCount;
+
+	/**
+	 * state plus class to the next state, -1 if the next state completes a pattern; states are offsets into this
+	 * table
+	 */
+	private final int[] transitions;
+
+	private final boolean matchesAll;
+
+	/**
+	 * @param patterns the strings to look for, each encoded in UTF-8 and, if it differs, in ISO-8859-1; patterns
+	 *            containing whitespace never match
+	 */
+	public ArtifactPrefilter(Collection<String> patterns) {
+		Set<List<Byte>> encoded = new LinkedHashSet<List<Byte>>();
+		boolean empty = false;
+		for (String pattern : patterns) {
+			empty |= pattern.length() == 0;
+			encoded.add(toList(pattern.getBytes(UTF8)));
+			encoded.add(toList(pattern.getBytes(LATIN1)));
+		}
+		this.matchesAll = empty;
+
+		int count = 1;
+		this.whitespace = count++;
+		for (char c : new char[] { ' ', '\t', '\r', '\n' }) {
+			classes[c] = whitespace;
+		}
+		for (List<Byte> pattern : encoded) {
+			for (Byte b : pattern) {
+				if (classes[b & 0xff] == 0) {
+					classes[b & 0xff] = count++;
+				}
+			}
+		}
+		this.classCount = count;
+		this.transitions = compile(encoded);
+	}
+
+	/**
+	 * @return a prefilter for the artifactIds of the given <code>groupId:artifactId</code> keys, as element text
+	 */
+	public static ArtifactPrefilter forKeys(Collection<String> versionlessKeys) {
+		List<String> patterns = new ArrayList<String>(versionlessKeys.size() + 4);
+		for (String key : versionlessKeys) {
+			patterns.add('>' + key.substring(key.indexOf(':') + 1) + '<');
+		}
+		// a character reference or CDATA section may hide any of them
+		patterns.add("&#");
+		patterns.add("<![CDATA[");
+		// so may an interpolated artifactId
+		patterns.add("artifactId>${");
+		patterns.add("}</artifactId>");
+		return new ArtifactPrefilter(patterns);
+	}
+
+	private static List<Byte> toList(byte[] bytes) {
+		List<Byte> list = new ArrayList<Byte>(bytes.length);
+		for (byte b : bytes) {
+			list.add(b);
+		}
+		return list;
+	}
+
+	/**
+	 * Builds the trie, then completes it with the failure links into a deterministic automaton.
+	 */
+	private int[] compile(Collection<List<Byte>> patterns) {
+		List<int[]> next = new ArrayList<int[]>();
+		List<Boolean> accepting = new ArrayList<Boolean>();
+		next.add(newRow());
+		accepting.add(false);
+		for (List<Byte> pattern : patterns) {
+			int state = 0;
+			for (Byte b : pattern) {
+				int c = classes[b & 0xff];
+				if (next.get(state)[c] < 0) {
+					next.get(state)[c] = next.size();
+					next.add(newRow());
+					accepting.add(false);
+				}
+				state = next.get(state)[c];
+			}
+			accepting.set(state, true);
+		}
+
+		int[] fail = new int[next.size()];
+		int[] queue = new int[next.size()];
+		int head = 0;
+		int tail = 0;
+		int[] root = next.get(0);
+		for (int c = 0; c < classCount; c++) {
+			if (root[c] < 0) {
+				root[c] = 0;
+			} else {
+				queue[tail++] = root[c];
+			}
+		}
+		while (head < tail) {
+			int state = queue[head++];
+			int[] row = next.get(state);
+			int[] failRow = next.get(fail[state]);
+			for (int c = 0; c < classCount; c++) {
+				if (row[c] < 0) {
+					row[c] = failRow[c];
+				} else {
+					int child = row[c];
+					fail[child] = failRow[c];
+					if (accepting.get(fail[child])) {
+						accepting.set(child, true);
+					}
+					queue[tail++] = child;
+				}
+			}
+		}
+
+		int[] table = new int[next.size() * classCount];
+		for (int state = 0; state < next.size(); state++) {
+			int[] row = next.get(state);
+			for (int c = 0; c < classCount; c++) {
+				table[state * classCount + c] = accepting.get(row[c]) ? -1 : row[c] * classCount;
+			}
+			table[state * classCount + whitespace] = state * classCount;
+		}
+		return table;
+	}
+
+	private int[] newRow() {
+		int[] row = new int[classCount];
+		Arrays.fill(row, -1);
+		return row;
+	}
+
+	/**
+	 * @return whether the POM may reference one of the artifacts; <code>false</code> only if it certainly does not.
+	 */
+	public boolean mightReference(byte[] pom) {
+		if (matchesAll || isWide(pom)) {
+			return true;
+		}
+		int[] table = transitions;
+		int state = 0;
+		for (byte b : pom) {
+			state = table[state + classes[b & 0xff]];
+			if (state < 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return whether the POM starts like a document in UTF-16 or UTF-32, with or without byte order mark.
+	 */
+	private static boolean isWide(byte[] pom) {
+		if (pom.length < 2) {
+			return false;
+		}
+		int first = pom[0] & 0xff;
+		int second = pom[1] & 0xff;
+		return first == 0 || second == 0 || (first == 0xfe && second == 0xff) || (first == 0xff && second == 0xfe);
+	}
+}
@@ -0,0 +1,327 @@
+package org.kloeckner.maven.plugin.util;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Wall time and allocated bytes of the phases of one execution, the latency of every version list fetched and the
+ * number of rewritten values. An aggregated execution adds the result of every module it updated.
+ * <p>
+ * Phases run one after another on the executing thread. Allocations are measured for that thread only, so work done
+ * by resolution threads shows up in the fetch latencies but not in the allocated bytes. Allocated bytes are
+ * <code>-1</code> if the JVM can't measure them.
+ * <p>
+ * The peak heap is the sum of the peak usage of the heap memory pools when the report is written. It covers the whole
+ * life of the JVM, so in a Maven process of its own it is the peak of the build.
+ */
+public class ExecutionReport {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	private static final class Phase {
+
+		private final String name;
+
+		private final long nanos;
+
+		private final long allocatedBytes;
+
+		Phase(String name, long nanos, long allocatedBytes) {
+			this.name = name;
+			this.nanos = nanos;
+			this.allocatedBytes = allocatedBytes;
+		}
+	}
+
+	private static final class Fetch {
+
+		private final String artifact;
+
+		private final String source;
+
+		private final long nanos;
+
+		Fetch(String artifact, String source, long nanos) {
+			this.artifact = artifact;
+			this.source = source;
+			this.nanos = nanos;
+		}
+	}
+
+	private static final class Module {
+
+		private final String project;
+
+		private final boolean written;
+
+		private final boolean skipped;
+
+		private final int rewrittenVersions;
+
+		private final int rewrittenProperties;
+
+		private final long nanos;
+
+		Module(String project, ExecutionReport report) {
+			this.project = project;
+			this.written = report.written;
+			this.skipped = report.skipped;
+			this.rewrittenVersions = report.rewrittenVersions.get();
+			this.rewrittenProperties = report.rewrittenProperties.get();
+			long sum = 0;
+			for (Phase phase : report.phases) {
+				sum += phase.nanos;
+			}
+			this.nanos = sum;
+		}
+	}
+
+	private final long started = System.nanoTime();
+
+	private final List<Phase> phases = new ArrayList<Phase>();
+
+	private final List<Fetch> fetches = new ArrayList<Fetch>();
+
+	private final List<Module> modules = new ArrayList<Module>();
+
+	private final AtomicInteger rewrittenVersions = new AtomicInteger();
+
+	private final AtomicInteger rewrittenProperties = new AtomicInteger();
+
+	private String currentPhase;
+
+	private long phaseStarted;
+
+	private long phaseAllocated;
+
+	private boolean skipped;
+
+	private boolean written;
+
+	/**
+	 * Starts measuring the given phase, ending the current one.
+	 */
+	public void startPhase(String name) {
+		endPhase();
+		currentPhase = name;
+		phaseAllocated = allocatedBytes();
+		phaseStarted = System.nanoTime();
+	}
+
+	/**
+	 * Ends the current phase, if any.
+	 */
+	public void endPhase() {
+		if (currentPhase == null) {
+			return;
+		}
+		long nanos = System.nanoTime() - phaseStarted;
+		long allocated = allocatedBytes();
+		phases.add(new Phase(currentPhase, nanos, allocated < 0 || phaseAllocated < 0 ? -1 : allocated - phaseAllocated));
+		currentPhase = null;
+	}
+
+	/**
+	 * Records the latency of fetching the versions of an artifact.
+	 *
+	 * @param source where the versions came from, e.g. <code>remote</code> or <code>cached</code>
+	 */
+	public synchronized void addFetch(String artifact, String source, long nanos) {
+		fetches.add(new Fetch(artifact, source, nanos));
+	}
+
+	public void countRewrittenVersion() {
+		rewrittenVersions.incrementAndGet();
+	}
+
+	public void countRewrittenProperty() {
+		rewrittenProperties.incrementAndGet();
+	}
+
+	/**
+	 * Adds the result of updating one module. Its rewritten values count for this report as well.
+	 *
+	 * @param report the report of the module, with all phases ended
+	 */
+	public synchronized void addModule(String project, ExecutionReport report) {
+		Module module = new Module(project, report);
+		modules.add(module);
+		rewrittenVersions.addAndGet(module.rewrittenVersions);
+		rewrittenProperties.addAndGet(module.rewrittenProperties);
+	}
+
+	/**
+	 * @return the number of versions rewritten, including those of the modules added.
+	 */
+	public int getRewrittenVersions() {
+		return rewrittenVersions.get();
+	}
+
+	/**
+	 * @return the number of properties rewritten, including those of the modules added.
+	 */
+	public int getRewrittenProperties() {
+		return rewrittenProperties.get();
+	}
+
+	public boolean isSkipped() {
+		return skipped;
+	}
+
+	public void setSkipped(boolean skipped) {
+		this.skipped = skipped;
+	}
+
+	public void setWritten(boolean written) {
+		this.written = written;
+	}
+
+	private static long peakHeapBytes() {
+		long sum = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			MemoryUsage peak = pool.getType() == MemoryType.HEAP ? pool.getPeakUsage() : null;
+			if (peak != null) {
+				sum += peak.getUsed();
+			}
+		}
+		return sum;
+	}
+
+	private static long allocatedBytes() {
+		if (THREADS instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+			if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+				return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return a one line summary for the log.
+	 */
+	public synchronized String getSummary() {
+		StringBuilder sb = new StringBuilder();
+		for (Phase phase : phases) {
+			sb.append(phase.name).append(' ').append(phase.nanos / 1000000).append("ms, ");
+		}
+		sb.append(fetches.size()).append(" fetched, ");
+		sb.append(rewrittenVersions.get()).append(" versions and ").append(rewrittenProperties.get()).append(" properties rewritten");
+		if (skipped) {
+			sb.append(", skipped");
+		}
+		if (!modules.isEmpty()) {
+			int written = 0;
+			int skippedModules = 0;
+			for (Module module : modules) {
+				written += module.written ? 1 : 0;
+				skippedModules += module.skipped ? 1 : 0;
+			}
+			sb.append(", ").append(modules.size()).append(" modules: ").append(written).append(" written, ").append(skippedModules).append(" skipped");
+		}
+		sb.append(" in ").append((System.nanoTime() - started) / 1000000).append("ms");
+		return sb.toString();
+	}
+
+	/**
+	 * Writes the report as JSON.
+	 */
+	public synchronized void write(File file, String project) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\n");
+		sb.append("  \"project\": ").append(quote(project)).append(",\n");
+		sb.append("  \"totalMillis\": ").append(millis(System.nanoTime() - started)).append(",\n");
+		sb.append("  \"peakHeapBytes\": ").append(peakHeapBytes()).append(",\n");
+		sb.append("  \"skipped\": ").append(skipped).append(",\n");
+		sb.append("  \"written\": ").append(written).append(",\n");
+		sb.append("  \"rewrittenVersions\": ").append(rewrittenVersions.get()).append(",\n");
+		sb.append("  \"rewrittenProperties\": ").append(rewrittenProperties.get()).append(",\n");
+		sb.append("  \"phases\": [");
+		for (int i = 0; i < phases.size(); i++) {
+			Phase phase = phases.get(i);
+			sb.append(i == 0 ? "\n" : ",\n");
+			sb.append("    {\"name\": ").append(quote(phase.name));
+			sb.append(", \"millis\": ").append(millis(phase.nanos));
+			sb.append(", \"allocatedBytes\": ").append(phase.allocatedBytes).append('}');
+		}
+		sb.append(phases.isEmpty() ? "],\n" : "\n  ],\n");
+		sb.append("  \"fetches\": [");
+		for (int i = 0; i < fetches.size(); i++) {
+			Fetch fetch = fetches.get(i);
+			sb.append(i == 0 ? "\n" : ",\n");
+			sb.append("    {\"artifact\": ").append(quote(fetch.artifact));
+			sb.append(", \"source\": ").append(quote(fetch.source));
+			sb.append(", \"millis\": ").append(millis(fetch.nanos)).append('}');
+		}
+		sb.append(fetches.isEmpty() ? "],\n" : "\n  ],\n");
+		sb.append("  \"modules\": [");
+		for (int i = 0; i < modules.size(); i++) {
+			Module module = modules.get(i);
+			sb.append(i == 0 ? "\n" : ",\n");
+			sb.append("    {\"project\": ").append(quote(module.project));
+			sb.append(", \"written\": ").append(module.written);
+			sb.append(", \"skipped\": ").append(module.skipped);
+			sb.append(", \"rewrittenVersions\": ").append(module.rewrittenVersions);
+			sb.append(", \"rewrittenProperties\": ").append(module.rewrittenProperties);
+			sb.append(", \"millis\": ").append(millis(module.nanos)).append('}');
+		}
+		sb.append(modules.isEmpty() ? "]\n" : "\n  ]\n");
+		sb.append("}\n");
+
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("unable to create directory " + dir);
+		}
+		Files.write(file.toPath(), sb.toString().getBytes(UTF8));
+	}
+
+	private static String millis(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / 1000000.0);
+	}
+
+	private static String quote(String value) {
+		if (value == null) {
+			return "null";
+		}
+		StringBuilder sb = new StringBuilder(value.length() + 2);
+		sb.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+}
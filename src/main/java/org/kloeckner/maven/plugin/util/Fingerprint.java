@@ -0,0 +1,107 @@
+package org.kloeckner.maven.plugin.util;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Digest over everything that determines the outcome of rewriting a POM: the POM itself, every POM it inherits from,
+ * the rules file and the original and resolved versions. If the digest of the last run is unchanged, running again
+ * can't change the POM.
+ */
+public class Fingerprint {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final MessageDigest digest;
+
+	public Fingerprint() {
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Adds the content of the given file, or a marker if it does not exist.
+	 */
+	public Fingerprint addFile(File file) throws IOException {
+		if (file != null && file.isFile()) {
+			digest.update(Files.readAllBytes(file.toPath()));
+		} else {
+			digest.update((byte) 0);
+		}
+		digest.update((byte) '\n');
+		return this;
+	}
+
+	/**
+	 * Adds the entries of the given map in key order.
+	 */
+	public Fingerprint addMap(Map<String, String> map) {
+		for (Map.Entry<String, String> entry : new TreeMap<String, String>(map).entrySet()) {
+			digest.update(entry.getKey().getBytes(UTF8));
+			digest.update((byte) '=');
+			if (entry.getValue() != null) {
+				digest.update(entry.getValue().getBytes(UTF8));
+			}
+			digest.update((byte) '\n');
+		}
+		digest.update((byte) '\n');
+		return this;
+	}
+
+	/**
+	 * @return the hex encoded digest; the fingerprint can't be used afterwards.
+	 */
+	public String toHex() {
+		byte[] bytes = digest.digest();
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return the fingerprint stored in the given file, or <code>null</code> if there is none.
+	 */
+	public static String read(File file) {
+		if (file == null || !file.isFile()) {
+			return null;
+		}
+		try {
+			return new String(Files.readAllBytes(file.toPath()), UTF8).trim();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	public static void write(File file, String fingerprint) throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("unable to create directory " + dir);
+		}
+		Files.write(file.toPath(), fingerprint.getBytes(UTF8));
+	}
+}
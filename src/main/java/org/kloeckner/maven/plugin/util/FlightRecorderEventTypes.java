@@ -0,0 +1,219 @@
+package org.kloeckner.maven.plugin.util;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The event types of the plugin. Only {@link FlightRecorderEvents} uses this class, and only if the JVM has the Flight
+ * Recorder API, so it is never loaded on older JVMs.
+ * <p>
+ * An event is created only if its type is enabled in a running recording; otherwise the methods return
+ * <code>null</code> and the caller has nothing to end.
+ */
+final class FlightRecorderEventTypes {
+
+	private static final String PREFIX = "org.kloeckner.versionrange.";
+
+	@Name(PREFIX + "Resolution")
+	@Label("Version Resolution")
+	@Description("Resolution of the newest version matching a rule, including the fetch of the versions unless they were fetched before")
+	@Category({ "Maven", "Version Range" })
+	@StackTrace(false)
+	static final class ResolutionEvent extends Event {
+
+		@Label("Artifact")
+		String artifact;
+
+		@Label("Range")
+		String range;
+
+		@Label("Result")
+		@Description("The resolved version, or the failure")
+		String result;
+	}
+
+	@Name(PREFIX + "Fetch")
+	@Label("Version Fetch")
+	@Description("Request of the versions of an artifact from remote repositories")
+	@Category({ "Maven", "Version Range" })
+	@StackTrace(false)
+	static final class FetchEvent extends Event {
+
+		@Label("Artifact")
+		String artifact;
+
+		@Label("Mode")
+		@Description("single for one request to all repositories, hedged for one per repository, probe for a background probe")
+		String mode;
+
+		@Label("Repositories")
+		@Description("Number of remote repositories asked")
+		int repositories;
+
+		@Label("Result")
+		@Description("The number of versions, or the failure")
+		String result;
+	}
+
+	@Name(PREFIX + "PomRead")
+	@Label("POM Read")
+	@Category({ "Maven", "Version Range" })
+	@StackTrace(false)
+	static final class PomReadEvent extends Event {
+
+		@Label("File")
+		String file;
+
+		@Label("Size")
+		@DataAmount
+		long bytes;
+	}
+
+	@Name(PREFIX + "PomWrite")
+	@Label("POM Write")
+	@Category({ "Maven", "Version Range" })
+	@StackTrace(false)
+	static final class PomWriteEvent extends Event {
+
+		@Label("File")
+		String file;
+
+		@Label("Size")
+		@DataAmount
+		long bytes;
+	}
+
+	@Name(PREFIX + "Rewrite")
+	@Label("Value Rewritten")
+	@Description("A version or property rewritten in a POM")
+	@Category({ "Maven", "Version Range" })
+	@StackTrace(false)
+	static final class RewriteEvent extends Event {
+
+		@Label("Kind")
+		@Description("version, parent or property")
+		String kind;
+
+		@Label("Name")
+		@Description("The artifact or property")
+		String name;
+
+		@Label("Old Value")
+		String oldValue;
+
+		@Label("New Value")
+		String newValue;
+	}
+
+	private FlightRecorderEventTypes() {
+	}
+
+	static Object beginResolution() {
+		ResolutionEvent event = new ResolutionEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	static void endResolution(Object e, String artifact, String range, String result) {
+		ResolutionEvent event = (ResolutionEvent) e;
+		event.end();
+		if (event.shouldCommit()) {
+			event.artifact = artifact;
+			event.range = range;
+			event.result = result;
+			event.commit();
+		}
+	}
+
+	static Object beginFetch() {
+		FetchEvent event = new FetchEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	static void endFetch(Object e, String artifact, String mode, int repositories, String result) {
+		FetchEvent event = (FetchEvent) e;
+		event.end();
+		if (event.shouldCommit()) {
+			event.artifact = artifact;
+			event.mode = mode;
+			event.repositories = repositories;
+			event.result = result;
+			event.commit();
+		}
+	}
+
+	static Object beginPomRead() {
+		PomReadEvent event = new PomReadEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	static void endPomRead(Object e, String file, long bytes) {
+		PomReadEvent event = (PomReadEvent) e;
+		event.end();
+		if (event.shouldCommit()) {
+			event.file = file;
+			event.bytes = bytes;
+			event.commit();
+		}
+	}
+
+	static Object beginPomWrite() {
+		PomWriteEvent event = new PomWriteEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	static void endPomWrite(Object e, String file, long bytes) {
+		PomWriteEvent event = (PomWriteEvent) e;
+		event.end();
+		if (event.shouldCommit()) {
+			event.file = file;
+			event.bytes = bytes;
+			event.commit();
+		}
+	}
+
+	static void rewritten(String kind, String name, String oldValue, String newValue) {
+		RewriteEvent event = new RewriteEvent();
+		if (event.shouldCommit()) {
+			event.kind = kind;
+			event.name = name;
+			event.oldValue = oldValue;
+			event.newValue = newValue;
+			event.commit();
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package org.kloeckner.maven.plugin.util;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+
+/**
+ * Java Flight Recorder events of the plugin: one per resolved rule, request to remote repositories, POM read and
+ * written and value rewritten, all in the category <code>Maven / Version Range</code>. The versions of a rule may have
+ * been fetched concurrently before it is resolved, so only the fetch events cover the network.
+ * <p>
+ * The Flight Recorder API exists since Java 11. On older JVMs every method does nothing. Otherwise an event is created
+ * only while a recording enables its type, so without a recording a call costs a field check and an allocation the JIT
+ * removes. The <code>begin</code> methods return the event to end, or <code>null</code> if there is none.
+ */
+public final class FlightRecorderEvents {
+
+	private static final boolean AVAILABLE = isAvailable();
+
+	private FlightRecorderEvents() {
+	}
+
+	private static boolean isAvailable() {
+		try {
+			Class.forName("jdk.jfr.Event");
+			return true;
+		} catch (ClassNotFoundException e) {
+			return false;
+		} catch (LinkageError e) {
+			return false;
+		}
+	}
+
+	public static Object beginResolution() {
+		return AVAILABLE ? FlightRecorderEventTypes.beginResolution() : null;
+	}
+
+	/**
+	 * @param result the resolved version or the failure
+	 */
+	public static void endResolution(Object event, String artifact, String range, String result) {
+		if (event != null) {
+			FlightRecorderEventTypes.endResolution(event, artifact, range, result);
+		}
+	}
+
+	public static Object beginFetch() {
+		return AVAILABLE ? FlightRecorderEventTypes.beginFetch() : null;
+	}
+
+	/**
+	 * @param mode <code>single</code>, <code>hedged</code> or <code>probe</code>
+	 * @param repositories the number of remote repositories actually asked
+	 * @param result the number of versions or the failure
+	 */
+	public static void endFetch(Object event, String artifact, String mode, int repositories, String result) {
+		if (event != null) {
+			FlightRecorderEventTypes.endFetch(event, artifact, mode, repositories, result);
+		}
+	}
+
+	public static Object beginPomRead() {
+		return AVAILABLE ? FlightRecorderEventTypes.beginPomRead() : null;
+	}
+
+	public static void endPomRead(Object event, File file, long bytes) {
+		if (event != null) {
+			FlightRecorderEventTypes.endPomRead(event, file.getPath(), bytes);
+		}
+	}
+
+	public static Object beginPomWrite() {
+		return AVAILABLE ? FlightRecorderEventTypes.beginPomWrite() : null;
+	}
+
+	public static void endPomWrite(Object event, File file, long bytes) {
+		if (event != null) {
+			FlightRecorderEventTypes.endPomWrite(event, file.getPath(), bytes);
+		}
+	}
+
+	/**
+	 * Records a rewritten value.
+	 *
+	 * @param kind <code>version</code>, <code>parent</code> or <code>property</code>
+	 * @param name the artifact or the property
+	 */
+	public static void rewritten(String kind, String name, String oldValue, String newValue) {
+		if (AVAILABLE) {
+			FlightRecorderEventTypes.rewritten(kind, name, oldValue, newValue);
+		}
+	}
+}
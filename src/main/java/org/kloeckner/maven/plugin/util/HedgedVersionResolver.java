@@ -0,0 +1,312 @@
+package org.kloeckner.maven.plugin.util;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.VersionRangeRequest;
+import org.eclipse.aether.resolution.VersionRangeResult;
+import org.eclipse.aether.transfer.MetadataNotFoundException;
+import org.eclipse.aether.version.Version;
+
+/**
+ * Resolves the versions of an artifact by asking every remote repository on its own, all at the same time.
+ * <p>
+ * The versions are merged as the answers arrive. Waiting stops once the quorum of repositories knowing the artifact
+ * answered, or at the deadline if at least one of them did. Before that only the timeout ends the wait. Repositories
+ * are asked fastest first according to their latency estimates, and a repository estimated slower than the deadline is
+ * not asked at all while the others can still make up the quorum. Such a repository is probed again in the background
+ * once per probe interval; nobody waits for the probe, it only updates the latency estimate.
+ * <p>
+ * The requests run on an executor shared by all resolutions; the requests not waited for are cancelled. Every
+ * resolution and every probe is recorded as a Flight Recorder fetch event with the number of repositories asked.
+ * <p>
+ * With a circuit breaker, every answer and every failure of a repository is recorded with it. Repositories it skips
+ * are expected to be filtered out by the caller.
+ */
+public class HedgedVersionResolver {
+
+	private final RepositorySystem repoSystem;
+
+	private final RepositorySystemSession repoSession;
+
+	private final ExecutorService executor;
+
+	private final RepositoryLatencies latencies;
+
+	private final RepositoryCircuitBreaker circuitBreaker;
+
+	private final long probeIntervalMillis;
+
+	/**
+	 * The merged answers.
+	 */
+	public static class Result {
+
+		private final List<String> versions;
+
+		private final Map<String, String> repositories;
+
+		private final List<String> answered;
+
+		private final List<String> missing;
+
+		Result(List<String> versions, Map<String, String> repositories, List<String> answered, List<String> missing) {
+			this.versions = versions;
+			this.repositories = repositories;
+			this.answered = answered;
+			this.missing = missing;
+		}
+
+		/**
+		 * @return the versions of all answers, in ascending order.
+		 */
+		public List<String> getVersions() {
+			return versions;
+		}
+
+		/**
+		 * @return the id of the first repository that answered with a version, by version.
+		 */
+		public Map<String, String> getRepositories() {
+			return repositories;
+		}
+
+		/**
+		 * @return the ids of the repositories that answered.
+		 */
+		public List<String> getAnswered() {
+			return answered;
+		}
+
+		/**
+		 * @return the ids of the repositories that were skipped or not waited for.
+		 */
+		public List<String> getMissing() {
+			return missing;
+		}
+
+		/**
+		 * @return whether every repository was asked and either answered or failed.
+		 */
+		public boolean isComplete() {
+			return missing.isEmpty();
+		}
+	}
+
+	/**
+	 * @param executor the executor running the requests, which must not limit how many run at once
+	 * @param circuitBreaker the circuit breaker, or <code>null</code>
+	 * @param probeIntervalMillis time after which a repository not asked for being too slow is probed again
+	 */
+	public HedgedVersionResolver(RepositorySystem repoSystem, RepositorySystemSession repoSession, ExecutorService executor,
+			RepositoryLatencies latencies, RepositoryCircuitBreaker circuitBreaker, long probeIntervalMillis) {
+		this.repoSystem = repoSystem;
+		this.repoSession = repoSession;
+		this.executor = executor;
+		this.latencies = latencies;
+		this.circuitBreaker = circuitBreaker;
+		this.probeIntervalMillis = probeIntervalMillis;
+	}
+
+	/**
+	 * @param artifact the artifact with the range to resolve
+	 * @param quorum the number of repositories with versions to wait for, <code>0</code> for all
+	 * @param deadlineMillis time after which the answers so far are taken
+	 * @param timeoutMillis time after which resolution fails if no repository knowing the artifact answered
+	 */
+	public Result resolve(final Artifact artifact, List<RemoteRepository> repositories, int quorum, long deadlineMillis, long timeoutMillis) throws MojoExecutionException {
+		int needed = quorum <= 0 || quorum > repositories.size() ? repositories.size() : quorum;
+		List<RemoteRepository> queried = new ArrayList<RemoteRepository>();
+		List<String> missing = new ArrayList<String>();
+		for (RemoteRepository repository : latencies.sort(repositories)) {
+			if (queried.size() >= needed && latencies.getEstimate(repository) > deadlineMillis) {
+				missing.add(repository.getId());
+				if (latencies.claimProbe(repository, probeIntervalMillis)) {
+					probe(artifact, repository, deadlineMillis);
+				}
+			} else {
+				queried.add(repository);
+			}
+		}
+
+		Object event = FlightRecorderEvents.beginFetch();
+		String outcome = "failed";
+		try {
+			Result result = resolveQueried(artifact, queried, missing, needed, deadlineMillis, timeoutMillis);
+			outcome = result.getVersions().size() + " versions";
+			return result;
+		} catch (MojoExecutionException e) {
+			outcome = "failed: " + e.getMessage();
+			throw e;
+		} finally {
+			FlightRecorderEvents.endFetch(event, artifact.getGroupId() + ':' + artifact.getArtifactId(), "hedged", queried.size(), outcome);
+		}
+	}
+
+	/**
+	 * Asks the given repositories all at once and merges their answers.
+	 *
+	 * @param missing the ids of the repositories not asked, to which those not waited for are added
+	 */
+	private Result resolveQueried(final Artifact artifact, List<RemoteRepository> queried, List<String> missing, int needed, long deadlineMillis,
+			long timeoutMillis) throws MojoExecutionException {
+		long start = System.currentTimeMillis();
+		CompletionService<VersionRangeResult> completion = new ExecutorCompletionService<VersionRangeResult>(executor);
+		Map<Future<VersionRangeResult>, RemoteRepository> pending = new LinkedHashMap<Future<VersionRangeResult>, RemoteRepository>();
+		Map<Version, String> versions = new TreeMap<Version, String>();
+		List<String> answered = new ArrayList<String>();
+		int contributed = 0;
+		Exception failure = null;
+		try {
+			for (final RemoteRepository repository : queried) {
+				pending.put(completion.submit(new Callable<VersionRangeResult>() {
+					public VersionRangeResult call() throws Exception {
+						return ask(artifact, repository);
+					}
+				}), repository);
+			}
+
+			while (!pending.isEmpty() && contributed < needed) {
+				long wait = (contributed > 0 ? deadlineMillis : timeoutMillis) - (System.currentTimeMillis() - start);
+				if (wait <= 0) {
+					break;
+				}
+				Future<VersionRangeResult> future = completion.poll(wait, TimeUnit.MILLISECONDS);
+				if (future == null) {
+					continue;
+				}
+				RemoteRepository repository = pending.remove(future);
+				long took = System.currentTimeMillis() - start;
+				try {
+					VersionRangeResult result = future.get();
+					recordAnswer(repository, took);
+					answered.add(repository.getId());
+					for (Version version : result.getVersions()) {
+						if (!versions.containsKey(version)) {
+							versions.put(version, repository.getId());
+						}
+					}
+					if (!result.getVersions().isEmpty()) {
+						contributed++;
+					}
+				} catch (ExecutionException e) {
+					recordFailure(repository, e.getCause(), took, deadlineMillis);
+					if (failure == null) {
+						failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MojoExecutionException("interrupted while resolving versions for: " + artifact, e);
+		} finally {
+			for (Future<VersionRangeResult> future : pending.keySet()) {
+				future.cancel(true);
+			}
+		}
+
+		long waited = System.currentTimeMillis() - start;
+		for (RemoteRepository repository : pending.values()) {
+			latencies.record(repository, waited);
+			missing.add(repository.getId());
+		}
+		if (answered.isEmpty()) {
+			if (failure != null) {
+				throw new MojoExecutionException("unable to resolve versions for: " + artifact, failure);
+			}
+			throw new MojoExecutionException("timed out resolving versions for: " + artifact + " after " + waited + "ms");
+		}
+
+		List<String> result = new ArrayList<String>(versions.size());
+		Map<String, String> sources = new HashMap<String, String>();
+		for (Map.Entry<Version, String> e : versions.entrySet()) {
+			result.add(e.getKey().toString());
+			sources.put(e.getKey().toString(), e.getValue());
+		}
+		return new Result(result, sources, answered, missing);
+	}
+
+	/**
+	 * @return the answer of the repository, failing if it has no versions but an exception
+	 */
+	private VersionRangeResult ask(Artifact artifact, RemoteRepository repository) throws Exception {
+		VersionRangeRequest request = new VersionRangeRequest();
+		request.setArtifact(artifact);
+		request.setRepositories(Collections.singletonList(repository));
+		VersionRangeResult result = repoSystem.resolveVersionRange(repoSession, request);
+		if (result.getVersions().isEmpty() && !result.getExceptions().isEmpty()) {
+			throw result.getExceptions().get(0);
+		}
+		return result;
+	}
+
+	/**
+	 * Asks the repository in the background, only to learn its latency.
+	 */
+	private void probe(final Artifact artifact, final RemoteRepository repository, final long deadlineMillis) {
+		executor.submit(new Runnable() {
+			public void run() {
+				long start = System.currentTimeMillis();
+				Object event = FlightRecorderEvents.beginFetch();
+				String outcome = "failed";
+				try {
+					outcome = ask(artifact, repository).getVersions().size() + " versions";
+					recordAnswer(repository, System.currentTimeMillis() - start);
+				} catch (Exception e) {
+					outcome = "failed: " + e.getMessage();
+					recordFailure(repository, e, System.currentTimeMillis() - start, deadlineMillis);
+				} finally {
+					FlightRecorderEvents.endFetch(event, artifact.getGroupId() + ':' + artifact.getArtifactId(), "probe", 1, outcome);
+				}
+			}
+		});
+	}
+
+	private void recordAnswer(RemoteRepository repository, long took) {
+		if (circuitBreaker != null) {
+			circuitBreaker.recordSuccess(repository);
+		}
+		latencies.record(repository, took);
+	}
+
+	private void recordFailure(RemoteRepository repository, Throwable cause, long took, long deadlineMillis) {
+		// failing fast is no reason to be asked first next time
+		latencies.record(repository, Math.max(took, deadlineMillis));
+		if (circuitBreaker != null && RepositoryCircuitBreaker.isFailure(cause)) {
+			circuitBreaker.recordFailure(repository);
+		} else if (circuitBreaker != null && cause instanceof MetadataNotFoundException) {
+			circuitBreaker.recordSuccess(repository);
+		}
+	}
+}
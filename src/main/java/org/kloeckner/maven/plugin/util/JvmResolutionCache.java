@@ -0,0 +1,160 @@
+package org.kloeckner.maven.plugin.util;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Rules and version lists kept for as long as the JVM lives, so builds run by a long lived Maven daemon start warm.
+ * <p>
+ * Rules are keyed by the path, size and modification time of their file. Version lists are keyed like the
+ * {@link VersionRangeCache} and expire after the TTL. Both are bounded and evict the least recently used entries
+ * first. The hit and miss counters cover the whole lifetime of the JVM.
+ */
+public class JvmResolutionCache {
+
+	private static final JvmResolutionCache INSTANCE = new JvmResolutionCache();
+
+	private static final class Lru<V> extends LinkedHashMap<String, Lru.Timestamped<V>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private static final class Timestamped<V> {
+
+			private final V value;
+
+			private final long created;
+
+			Timestamped(V value, long created) {
+				this.value = value;
+				this.created = created;
+			}
+		}
+
+		private int maxEntries;
+
+		private long ttlMillis;
+
+		private long hits;
+
+		private long misses;
+
+		private long evictions;
+
+		Lru() {
+			super(16, 0.75f, true);
+		}
+
+		V lookup(String key) {
+			Timestamped<V> entry = get(key);
+			if (entry != null && System.currentTimeMillis() - entry.created >= ttlMillis) {
+				remove(key);
+				entry = null;
+			}
+			if (entry == null) {
+				misses++;
+				return null;
+			}
+			hits++;
+			return entry.value;
+		}
+
+		void store(String key, V value) {
+			put(key, new Timestamped<V>(value, System.currentTimeMillis()));
+		}
+
+		void limit(int maxEntries, long ttlMillis) {
+			this.maxEntries = maxEntries;
+			this.ttlMillis = ttlMillis;
+			Iterator<String> it = keySet().iterator();
+			while (size() > maxEntries && it.hasNext()) {
+				it.next();
+				it.remove();
+				evictions++;
+			}
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Timestamped<V>> eldest) {
+			if (size() > maxEntries) {
+				evictions++;
+				return true;
+			}
+			return false;
+		}
+
+		String getStats() {
+			return hits + " hits, " + misses + " misses, " + size() + " entries, " + evictions + " evicted";
+		}
+	}
+
+	private final Lru<RuleCatalog> rules = new Lru<RuleCatalog>();
+
+	private final Lru<PackedVersions> versions = new Lru<PackedVersions>();
+
+	private JvmResolutionCache() {
+		// use get(int, long)
+	}
+
+	/**
+	 * @param maxEntries the maximum number of rules files and of version lists each
+	 * @param ttlMillis the time a version list is used
+	 * @return the instance of this JVM, with the given limits applied.
+	 */
+	public static JvmResolutionCache get(int maxEntries, long ttlMillis) {
+		synchronized (INSTANCE) {
+			INSTANCE.rules.limit(maxEntries, Long.MAX_VALUE);
+			INSTANCE.versions.limit(maxEntries, ttlMillis);
+		}
+		return INSTANCE;
+	}
+
+	/**
+	 * @return the rules of the given file as long as it is unchanged, otherwise <code>null</code>.
+	 */
+	public synchronized RuleCatalog getRules(File source) {
+		return rules.lookup(rulesKey(source));
+	}
+
+	public synchronized void putRules(File source, RuleCatalog catalog) {
+		rules.store(rulesKey(source), catalog);
+	}
+
+	private static String rulesKey(File source) {
+		return source.getAbsolutePath() + '|' + source.length() + '|' + source.lastModified();
+	}
+
+	/**
+	 * @param key see {@link VersionRangeCache#key(org.eclipse.aether.artifact.Artifact, java.util.List)}
+	 * @return the versions of the artifact if they are younger than the TTL, otherwise <code>null</code>.
+	 */
+	public synchronized PackedVersions getVersions(String key) {
+		return versions.lookup(key);
+	}
+
+	public synchronized void putVersions(String key, PackedVersions packed) {
+		versions.store(key, packed);
+	}
+
+	/**
+	 * @return the counters for the log.
+	 */
+	public synchronized String getStats() {
+		return "rules " + rules.getStats() + "; version lists " + versions.getStats();
+	}
+}
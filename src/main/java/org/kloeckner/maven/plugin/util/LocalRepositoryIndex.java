@@ -0,0 +1,380 @@
+package org.kloeckner.maven.plugin.util;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Index of the artifact versions available in a local repository, used to resolve version ranges without network
+ * access.
+ * <p>
+ * The versions of an artifact are taken from the <code>maven-metadata*.xml</code> files in its directory and from the
+ * version directories holding a POM. The index is kept in a file sorted by <code>groupId:artifactId</code> which is
+ * memory mapped, so a lookup is a binary search that reads only the few records it touches. Refreshing the index
+ * only stats the directories of the repository; the metadata of an artifact is read again only if the modification
+ * time of its directory, its metadata files or its version directories changed.
+ * <p>
+ * File layout: magic, record count, the records, the record offsets in key order and finally the offset of that
+ * table. A record is the UTF-8 key, the modification stamp and the versions.
+ */
+public class LocalRepositoryIndex {
+
+	private static final int MAGIC = 0x56524c31; // "VRL1"
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final Pattern VERSIONS = Pattern.compile("<versions>(.*?)</versions>", Pattern.DOTALL);
+
+	private static final Pattern VERSION = Pattern.compile("<version>\\s*([^<\\s]+)\\s*</version>");
+
+	private static final Comparator<byte[]> UNSIGNED = new Comparator<byte[]>() {
+		public int compare(byte[] a, byte[] b) {
+			return LocalRepositoryIndex.compare(a, 0, a.length, b);
+		}
+	};
+
+	private final File localRepository;
+
+	private final File file;
+
+	private ByteBuffer buffer;
+
+	private int count;
+
+	private int table;
+
+	private static final class Record {
+
+		private final long stamp;
+
+		private final List<String> versions;
+
+		Record(long stamp, List<String> versions) {
+			this.stamp = stamp;
+			this.versions = versions;
+		}
+	}
+
+	public LocalRepositoryIndex(File localRepository, File file) {
+		this.localRepository = localRepository;
+		this.file = file;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Maps the index file if it exists.
+	 *
+	 * @return whether a valid index was found.
+	 */
+	public boolean open() throws IOException {
+		buffer = null;
+		count = 0;
+		if (!file.isFile() || file.length() < 12) {
+			return false;
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			if (mapped.getInt(0) != MAGIC) {
+				return false;
+			}
+			int tableOffset = mapped.getInt(mapped.limit() - 4);
+			int recordCount = mapped.getInt(4);
+			if (tableOffset < 8 || tableOffset + 4L * recordCount != mapped.limit() - 4) {
+				return false;
+			}
+			buffer = mapped;
+			count = recordCount;
+			table = tableOffset;
+			return true;
+		} finally {
+			// the mapping stays valid after the file is closed
+			raf.close();
+		}
+	}
+
+	/**
+	 * @return the number of artifacts in the index.
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return the versions of the given artifact, sorted by name, or <code>null</code> if the local repository has
+	 *         none.
+	 */
+	public List<String> getVersions(String groupId, String artifactId) {
+		if (buffer == null) {
+			return null;
+		}
+		byte[] key = (groupId + ':' + artifactId).getBytes(UTF8);
+		ByteBuffer b = buffer.duplicate();
+		int low = 0;
+		int high = count - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int offset = b.getInt(table + 4 * mid);
+			int length = b.getShort(offset) & 0xffff;
+			int cmp = compare(b, offset + 2, length, key);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return readRecord(b, offset).versions;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Scans the local repository, writes the index file and maps it. Artifacts whose directories did not change since
+	 * the last refresh are taken from the existing index.
+	 *
+	 * @return the number of artifacts whose metadata was read again.
+	 */
+	public int refresh() throws IOException {
+		Map<String, Record> previous = readAll();
+		TreeMap<byte[], Record> records = new TreeMap<byte[], Record>(UNSIGNED);
+		int[] rescanned = new int[1];
+		File[] children = localRepository.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				// skip .cache, .locks and the like
+				if (child.isDirectory() && !child.getName().startsWith(".")) {
+					scan(child, child.getName(), previous, records, rescanned);
+				}
+			}
+		}
+		write(records);
+		open();
+		return rescanned[0];
+	}
+
+	private void scan(File dir, String path, Map<String, Record> previous, Map<byte[], Record> records, int[] rescanned) {
+		File[] children = dir.listFiles();
+		if (children == null) {
+			return;
+		}
+		String artifactId = dir.getName();
+		long stamp = dir.lastModified();
+		boolean hasMetadata = false;
+		List<File> subdirs = new ArrayList<File>();
+		for (File child : children) {
+			String name = child.getName();
+			if (isMetadata(name)) {
+				hasMetadata = true;
+				stamp = Math.max(stamp, child.lastModified());
+			} else if (child.isDirectory()) {
+				subdirs.add(child);
+				stamp = Math.max(stamp, child.lastModified());
+			}
+		}
+
+		String key = groupId(path) + ':' + artifactId;
+		Record record = previous.get(key);
+		if (record == null || record.stamp != stamp) {
+			record = null;
+			Set<String> versions = new TreeSet<String>();
+			// top level directories are groups
+			boolean isArtifact = hasMetadata && path.indexOf('/') > 0;
+			for (File subdir : subdirs) {
+				if (path.indexOf('/') > 0 && new File(subdir, artifactId + '-' + subdir.getName() + ".pom").isFile()) {
+					versions.add(subdir.getName());
+					isArtifact = true;
+				}
+			}
+			if (isArtifact && hasMetadata) {
+				for (File child : children) {
+					if (isMetadata(child.getName())) {
+						readMetadataVersions(child, versions);
+					}
+				}
+			}
+			if (isArtifact && !versions.isEmpty()) {
+				record = new Record(stamp, new ArrayList<String>(versions));
+				rescanned[0]++;
+			}
+		}
+
+		Set<String> versions = Collections.emptySet();
+		if (record != null) {
+			records.put(key.getBytes(UTF8), record);
+			versions = new TreeSet<String>(record.versions);
+		}
+		for (File subdir : subdirs) {
+			// version directories hold no further artifacts
+			if (!versions.contains(subdir.getName())) {
+				scan(subdir, path + '/' + subdir.getName(), previous, records, rescanned);
+			}
+		}
+	}
+
+	private static boolean isMetadata(String name) {
+		return name.startsWith("maven-metadata") && name.endsWith(".xml");
+	}
+
+	private static String groupId(String path) {
+		int idx = path.lastIndexOf('/');
+		return idx < 0 ? "" : path.substring(0, idx).replace('/', '.');
+	}
+
+	private static void readMetadataVersions(File metadata, Set<String> versions) {
+		String content;
+		try {
+			content = new String(Files.readAllBytes(metadata.toPath()), UTF8);
+		} catch (IOException e) {
+			return;
+		}
+		Matcher block = VERSIONS.matcher(content);
+		while (block.find()) {
+			Matcher version = VERSION.matcher(block.group(1));
+			while (version.find()) {
+				versions.add(version.group(1));
+			}
+		}
+	}
+
+	private Map<String, Record> readAll() {
+		Map<String, Record> records = new TreeMap<String, Record>();
+		if (buffer == null) {
+			return records;
+		}
+		ByteBuffer b = buffer.duplicate();
+		for (int i = 0; i < count; i++) {
+			int offset = b.getInt(table + 4 * i);
+			int length = b.getShort(offset) & 0xffff;
+			records.put(readString(b, offset + 2, length), readRecord(b, offset));
+		}
+		return records;
+	}
+
+	private static Record readRecord(ByteBuffer b, int offset) {
+		int pos = offset + 2 + (b.getShort(offset) & 0xffff);
+		long stamp = b.getLong(pos);
+		pos += 8;
+		int versionCount = b.getInt(pos);
+		pos += 4;
+		List<String> versions = new ArrayList<String>(versionCount);
+		for (int i = 0; i < versionCount; i++) {
+			int length = b.getShort(pos) & 0xffff;
+			versions.add(readString(b, pos + 2, length));
+			pos += 2 + length;
+		}
+		return new Record(stamp, versions);
+	}
+
+	private static String readString(ByteBuffer b, int offset, int length) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = b.get(offset + i);
+		}
+		return new String(bytes, UTF8);
+	}
+
+	private static int compare(ByteBuffer b, int offset, int length, byte[] key) {
+		int n = Math.min(length, key.length);
+		for (int i = 0; i < n; i++) {
+			int cmp = (b.get(offset + i) & 0xff) - (key[i] & 0xff);
+			if (cmp != 0) {
+				return cmp;
+			}
+		}
+		return length - key.length;
+	}
+
+	private static int compare(byte[] a, int offset, int length, byte[] key) {
+		return compare(ByteBuffer.wrap(a), offset, length, key);
+	}
+
+	/**
+	 * Writes the records to a temporary file which is then moved over the index, so concurrent builds never map a
+	 * partially written index.
+	 */
+	private void write(TreeMap<byte[], Record> records) throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("unable to create directory " + dir);
+		}
+		File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			out.writeInt(MAGIC);
+			out.writeInt(records.size());
+			int[] offsets = new int[records.size()];
+			int i = 0;
+			for (Map.Entry<byte[], Record> e : records.entrySet()) {
+				offsets[i++] = out.size();
+				writeBytes(out, e.getKey());
+				out.writeLong(e.getValue().stamp);
+				out.writeInt(e.getValue().versions.size());
+				for (String version : e.getValue().versions) {
+					writeBytes(out, version.getBytes(UTF8));
+				}
+			}
+			int tableOffset = out.size();
+			for (int offset : offsets) {
+				out.writeInt(offset);
+			}
+			out.writeInt(tableOffset);
+			out.close();
+			out = null;
+			try {
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			IOUtil.close(out);
+			tmp.delete();
+		}
+	}
+
+	private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+		if (bytes.length > 0xffff) {
+			throw new IOException("value too long for the index: " + bytes.length + " bytes");
+		}
+		out.writeShort(bytes.length);
+		out.write(bytes);
+	}
+}
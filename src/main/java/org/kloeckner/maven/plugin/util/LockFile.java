@@ -0,0 +1,178 @@
+package org.kloeckner.maven.plugin.util;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The versions the rules resolved to, so a later build can use exactly the same ones without resolving anything.
+ * <p>
+ * The file has one line per rule, sorted by rule: the rule, the version, the repository the version was found in and
+ * the time the versions were fetched, separated by tabs. Lines starting with <code>#</code> are comments.
+ * <p>
+ * Entries loaded from the file are kept until they are replaced or removed, so a build resolving only some of the
+ * rules leaves the entries of the others untouched.
+ */
+public class LockFile {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final String HEADER = "# version-range-maven-plugin lockfile: rule, version, source, fetched";
+
+	/**
+	 * The resolution of one rule.
+	 */
+	public static class Entry {
+
+		private final String version;
+
+		private final String source;
+
+		private final long timestamp;
+
+		Entry(String version, String source, long timestamp) {
+			this.version = version;
+			this.source = source == null ? "-" : source;
+			this.timestamp = timestamp;
+		}
+
+		public String getVersion() {
+			return version;
+		}
+
+		/**
+		 * @return the id of the repository the version was found in, <code>cache</code>, <code>local</code> or
+		 *         <code>-</code> for a rule naming a plain version.
+		 */
+		public String getSource() {
+			return source;
+		}
+
+		public long getTimestamp() {
+			return timestamp;
+		}
+	}
+
+	private final File file;
+
+	private final Map<String, Entry> entries = new ConcurrentSkipListMap<String, Entry>();
+
+	public LockFile(File file) {
+		this.file = file;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Reads the entries of the file, replacing those of the same rules.
+	 */
+	public void load() throws IOException {
+		List<String> lines = Files.readAllLines(file.toPath(), UTF8);
+		DateFormat format = newDateFormat();
+		for (int i = 0; i < lines.size(); i++) {
+			String line = lines.get(i);
+			if (line.trim().length() == 0 || line.startsWith("#")) {
+				continue;
+			}
+			String[] fields = line.split("\t");
+			if (fields.length != 4) {
+				throw new IOException(file + ":" + (i + 1) + ": expected 4 tab separated fields");
+			}
+			try {
+				entries.put(fields[0], new Entry(fields[1], fields[2], format.parse(fields[3]).getTime()));
+			} catch (ParseException e) {
+				throw new IOException(file + ":" + (i + 1) + ": invalid timestamp " + fields[3], e);
+			}
+		}
+	}
+
+	/**
+	 * @return the entry of the given rule, or <code>null</code>.
+	 */
+	public Entry get(String rule) {
+		return entries.get(rule);
+	}
+
+	public void put(String rule, String version, String source, long timestamp) {
+		entries.put(rule, new Entry(version, source, timestamp));
+	}
+
+	/**
+	 * @return the rules with an entry, sorted.
+	 */
+	public Set<String> getRules() {
+		return Collections.unmodifiableSet(entries.keySet());
+	}
+
+	public void remove(String rule) {
+		entries.remove(rule);
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Writes all entries to a temporary file which is then moved over the lockfile.
+	 */
+	public synchronized void write() throws IOException {
+		DateFormat format = newDateFormat();
+		StringBuilder sb = new StringBuilder(HEADER).append('\n');
+		for (Map.Entry<String, Entry> e : entries.entrySet()) {
+			Entry entry = e.getValue();
+			sb.append(e.getKey()).append('\t').append(entry.version).append('\t').append(entry.source).append('\t');
+			sb.append(format.format(new Date(entry.timestamp))).append('\n');
+		}
+
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("unable to create directory " + dir);
+		}
+		File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+		try {
+			Files.write(tmp.toPath(), sb.toString().getBytes(UTF8));
+			try {
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			tmp.delete();
+		}
+	}
+
+	private static DateFormat newDateFormat() {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.ROOT);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format;
+	}
+}
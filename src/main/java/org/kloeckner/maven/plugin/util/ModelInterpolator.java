@@ -0,0 +1,215 @@
+package org.kloeckner.maven.plugin.util;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.maven.model.Model;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.codehaus.plexus.interpolation.InterpolationCycleException;
+import org.codehaus.plexus.interpolation.InterpolationException;
+import org.codehaus.plexus.interpolation.PrefixAwareRecursionInterceptor;
+import org.codehaus.plexus.interpolation.RecursionInterceptor;
+import org.codehaus.plexus.interpolation.reflection.ReflectionValueExtractor;
+import org.codehaus.plexus.interpolation.util.ValueSourceUtils;
+
+/**
+ * Interpolates <code>${...}</code> expressions against a single model, built once per execution.
+ * <p>
+ * Gives the same results as {@link VersionRangeUtils#interpolate(String, Model)}: expressions prefixed with
+ * <code>pom.</code> or <code>project.</code> are looked up in the model, then the expression is looked up in the
+ * model properties and finally unprefixed in the model. The common model fields and the properties are read into
+ * lookup tables up front, reflection is only used for anything else. Resolved expressions and interpolated strings
+ * are memoized, so every distinct string is interpolated only once.
+ */
+public class ModelInterpolator {
+
+	private static final List<String> POM_PREFIXES = Arrays.asList("pom.", "project.");
+
+	private static final String START_EXPR = "${";
+
+	private static final String END_EXPR = "}";
+
+	private final Model model;
+
+	/** model values by expression; a <code>null</code> value means the model has none */
+	private final Map<String, Object> modelValues = new HashMap<String, Object>();
+
+	private final Map<Object, Object> properties;
+
+	/** interpolated strings by input */
+	private final Map<String, String> results = new HashMap<String, String>();
+
+	/** fully interpolated values by whole expression, e.g. <code>${project.groupId}</code> */
+	private final Map<String, String> expressions = new HashMap<String, String>();
+
+	/** whole expressions no value source knows */
+	private final Set<String> unresolvable = new HashSet<String>();
+
+	public ModelInterpolator(Model model) {
+		this.model = model;
+		this.properties = new HashMap<Object, Object>(model.getProperties());
+		modelValues.put("groupId", model.getGroupId());
+		modelValues.put("artifactId", model.getArtifactId());
+		modelValues.put("version", model.getVersion());
+		modelValues.put("packaging", model.getPackaging());
+		modelValues.put("name", model.getName());
+		modelValues.put("modelVersion", model.getModelVersion());
+		modelValues.put("id", model.getId());
+		modelValues.put("parent.groupId", model.getParent() == null ? null : model.getParent().getGroupId());
+		modelValues.put("parent.artifactId", model.getParent() == null ? null : model.getParent().getArtifactId());
+		modelValues.put("parent.version", model.getParent() == null ? null : model.getParent().getVersion());
+	}
+
+	public String interpolate(String value) throws MojoExecutionException {
+		if (value == null || !value.contains(START_EXPR)) {
+			return value;
+		}
+		String result = results.get(value);
+		if (result == null) {
+			try {
+				result = interpolate(value, new PrefixAwareRecursionInterceptor(POM_PREFIXES));
+			} catch (InterpolationException e) {
+				throw new MojoExecutionException("Failed to interpolate " + value + " for project " + model.getId(), e);
+			}
+			results.put(value, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Follows the algorithm of the plexus <code>StringSearchInterpolator</code>.
+	 */
+	private String interpolate(String input, RecursionInterceptor recursionInterceptor) throws InterpolationException {
+		StringBuilder result = new StringBuilder(input.length() * 2);
+
+		int startIdx;
+		int endIdx = -1;
+		while ((startIdx = input.indexOf(START_EXPR, endIdx + 1)) > -1) {
+			result.append(input, endIdx + 1, startIdx);
+
+			endIdx = input.indexOf(END_EXPR, startIdx + 1);
+			if (endIdx < 0) {
+				break;
+			}
+
+			String wholeExpr = input.substring(startIdx, endIdx + END_EXPR.length());
+			String resolved = resolve(wholeExpr, recursionInterceptor);
+			result.append(resolved == null ? wholeExpr : resolved);
+
+			endIdx += END_EXPR.length() - 1;
+		}
+
+		if (endIdx == -1 && startIdx > -1) {
+			result.append(input, startIdx, input.length());
+		} else if (endIdx < input.length()) {
+			result.append(input, endIdx + 1, input.length());
+		}
+
+		return result.toString();
+	}
+
+	/**
+	 * @return the interpolated value of the expression or <code>null</code> if it can't be resolved.
+	 */
+	private String resolve(String wholeExpr, RecursionInterceptor recursionInterceptor) throws InterpolationException {
+		if (unresolvable.contains(wholeExpr)) {
+			return null;
+		}
+		String realExpr = wholeExpr.substring(START_EXPR.length(), wholeExpr.length() - END_EXPR.length());
+		if (realExpr.startsWith(".")) {
+			realExpr = realExpr.substring(1);
+		}
+		if (recursionInterceptor.hasRecursiveExpression(realExpr)) {
+			throw new InterpolationCycleException(recursionInterceptor, realExpr, wholeExpr);
+		}
+
+		String resolved = expressions.get(wholeExpr);
+		if (resolved != null) {
+			return resolved;
+		}
+
+		recursionInterceptor.expressionResolutionStarted(realExpr);
+		try {
+			Object value = lookup(realExpr, wholeExpr, recursionInterceptor);
+			if (value == null) {
+				unresolvable.add(wholeExpr);
+				return null;
+			}
+			resolved = interpolate(String.valueOf(value), recursionInterceptor);
+			expressions.put(wholeExpr, resolved);
+			return resolved;
+		} finally {
+			recursionInterceptor.expressionResolutionFinished(realExpr);
+		}
+	}
+
+	/**
+	 * Asks the value sources in the order {@link VersionRangeUtils#interpolate(String, Model)} registers them.
+	 */
+	private Object lookup(String realExpr, String wholeExpr, RecursionInterceptor recursionInterceptor) throws InterpolationCycleException {
+		Object bestAnswer = null;
+
+		String unprefixed = ValueSourceUtils.trimPrefix(realExpr, POM_PREFIXES, false);
+		Object value = unprefixed == null ? null : getModelValue(unprefixed);
+		if (value != null && value.toString().contains(wholeExpr)) {
+			bestAnswer = value;
+			value = null;
+		}
+
+		if (value == null) {
+			value = properties.get(realExpr);
+			if (value != null && value.toString().contains(wholeExpr)) {
+				bestAnswer = value;
+				value = null;
+			}
+		}
+
+		if (value == null) {
+			value = getModelValue(realExpr);
+			if (value != null && value.toString().contains(wholeExpr)) {
+				bestAnswer = value;
+				value = null;
+			}
+		}
+
+		if (value == null && bestAnswer != null) {
+			throw new InterpolationCycleException(recursionInterceptor, realExpr, wholeExpr);
+		}
+		return value;
+	}
+
+	private Object getModelValue(String expression) {
+		if (expression.trim().length() < 1) {
+			return null;
+		}
+		if (modelValues.containsKey(expression)) {
+			return modelValues.get(expression);
+		}
+		Object value;
+		try {
+			value = ReflectionValueExtractor.evaluate(expression, model, false);
+		} catch (Exception e) {
+			value = null;
+		}
+		modelValues.put(expression, value);
+		return value;
+	}
+}
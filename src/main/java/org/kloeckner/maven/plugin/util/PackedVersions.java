@@ -0,0 +1,345 @@
+package org.kloeckner.maven.plugin.util;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.eclipse.aether.util.version.GenericVersionScheme;
+import org.eclipse.aether.version.InvalidVersionSpecificationException;
+import org.eclipse.aether.version.Version;
+import org.eclipse.aether.version.VersionConstraint;
+import org.eclipse.aether.version.VersionRange;
+
+/**
+ * The versions of an artifact, prepared for evaluating many ranges against them.
+ * <p>
+ * Common version shapes, up to four numeric segments optionally followed by a well known qualifier like
+ * <code>-beta-2</code>, <code>-RC1</code>, <code>-SNAPSHOT</code> or <code>.Final</code>, are packed into a
+ * <code>long</code> whose natural order is the order of Aether's generic version scheme. A range whose bounds can be
+ * packed is compiled into two <code>long</code> comparisons, so finding the highest match is a single scan without
+ * allocations. Only versions of any other shape are parsed into Aether {@link Version}s, on first use.
+ */
+public class PackedVersions {
+
+	/** key of a version that can't be packed */
+	static final long UNPACKABLE = -1L;
+
+	private static final int SEGMENTS = 4;
+
+	private static final int SEGMENT_BITS = 13;
+
+	private static final int MAX_SEGMENT = (1 << SEGMENT_BITS) - 1;
+
+	private static final int MAX_QUALIFIER_NUMBER = 0xff;
+
+	private static final int ALPHA = 1;
+
+	private static final int BETA = 2;
+
+	private static final int MILESTONE = 3;
+
+	private static final int RC = 4;
+
+	private static final int SNAPSHOT = 5;
+
+	private static final int RELEASE = 6;
+
+	private static final int SP = 7;
+
+	private static final GenericVersionScheme VERSION_SCHEME = new GenericVersionScheme();
+
+	/**
+	 * Which versions take part in range evaluation at all.
+	 */
+	public enum Filter {
+		/** every version, like Aether */
+		ALL,
+		/** everything but snapshots */
+		RELEASES,
+		/** only versions without any qualifier but service packs and final markers */
+		FINAL;
+
+		public static Filter parse(String value) {
+			try {
+				return valueOf(value.trim().toUpperCase(Locale.ENGLISH));
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("unknown version filter '" + value + "', expected one of all, releases, final");
+			}
+		}
+	}
+
+	/**
+	 * A range compiled into bounds on packed keys.
+	 */
+	public static class Range {
+
+		private final VersionRange range;
+
+		private final boolean packed;
+
+		private final long lower;
+
+		private final boolean lowerInclusive;
+
+		private final long upper;
+
+		private final boolean upperInclusive;
+
+		public Range(VersionRange range) {
+			this.range = range;
+			VersionRange.Bound lowerBound = range.getLowerBound();
+			VersionRange.Bound upperBound = range.getUpperBound();
+			long lowerKey = lowerBound == null ? 0 : pack(lowerBound.getVersion().toString());
+			long upperKey = upperBound == null ? Long.MAX_VALUE : pack(upperBound.getVersion().toString());
+			this.packed = lowerKey != UNPACKABLE && upperKey != UNPACKABLE;
+			this.lower = lowerKey;
+			this.lowerInclusive = lowerBound == null || lowerBound.isInclusive();
+			this.upper = upperKey;
+			this.upperInclusive = upperBound == null || upperBound.isInclusive();
+		}
+
+		boolean containsKey(long key) {
+			return (lowerInclusive ? key >= lower : key > lower) && (upperInclusive ? key <= upper : key < upper);
+		}
+	}
+
+	private final String[] versions;
+
+	private final long[] keys;
+
+	/** parsed versions, filled on first use; races only parse a version twice */
+	private final Version[] parsed;
+
+	private final String source;
+
+	private final Map<String, String> repositories;
+
+	private final long timestamp;
+
+	public PackedVersions(List<String> versions) {
+		this(versions, null, null, 0);
+	}
+
+	/**
+	 * @param source where the versions come from, e.g. <code>cache</code>
+	 * @param repositories the id of the repository of each version, may be <code>null</code> or incomplete
+	 * @param timestamp when the versions were fetched
+	 */
+	public PackedVersions(List<String> versions, String source, Map<String, String> repositories, long timestamp) {
+		this.source = source;
+		this.repositories = repositories;
+		this.timestamp = timestamp;
+		int size = versions.size();
+		this.versions = versions.toArray(new String[size]);
+		this.keys = new long[size];
+		this.parsed = new Version[size];
+		for (int i = 0; i < size; i++) {
+			keys[i] = pack(this.versions[i]);
+		}
+	}
+
+	public int size() {
+		return versions.length;
+	}
+
+	/**
+	 * @return the id of the repository the given version was found in, otherwise where all versions come from.
+	 */
+	public String getSource(String version) {
+		String repository = repositories == null ? null : repositories.get(version);
+		return repository != null ? repository : source;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return the highest version within the range that passes the filter, or <code>null</code> if there is none.
+	 */
+	public String findHighest(Range range, Filter filter) throws InvalidVersionSpecificationException {
+		int best = -1;
+		for (int i = 0; i < versions.length; i++) {
+			long key = keys[i];
+			if (!accept(i, filter)) {
+				continue;
+			}
+			if (key != UNPACKABLE && range.packed) {
+				if (!range.containsKey(key)) {
+					continue;
+				}
+			} else if (!range.range.containsVersion(getVersion(i))) {
+				continue;
+			}
+			if (best < 0 || compare(i, best) > 0) {
+				best = i;
+			}
+		}
+		return best < 0 ? null : versions[best];
+	}
+
+	/**
+	 * Like {@link #findHighest(Range, Filter)}; a constraint without a range is its version.
+	 */
+	public String findHighest(VersionConstraint constraint, Filter filter) throws InvalidVersionSpecificationException {
+		if (constraint.getRange() == null) {
+			return constraint.getVersion().toString();
+		}
+		return findHighest(new Range(constraint.getRange()), filter);
+	}
+
+	private boolean accept(int i, Filter filter) {
+		if (filter == Filter.ALL) {
+			return true;
+		}
+		long key = keys[i];
+		if (key != UNPACKABLE) {
+			int rank = (int) (key >>> 8) & 7;
+			return filter == Filter.RELEASES ? rank != SNAPSHOT : rank >= RELEASE;
+		}
+		String version = versions[i];
+		if (filter == Filter.RELEASES) {
+			return !isSnapshot(version);
+		}
+		for (int j = 0; j < version.length(); j++) {
+			if (Character.isLetter(version.charAt(j))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isSnapshot(String version) {
+		// plain or timestamped, e.g. 1.0-20240101.123456-1
+		return version.endsWith("SNAPSHOT") || version.matches(".*-\\d{8}\\.\\d{6}-\\d+");
+	}
+
+	private int compare(int a, int b) throws InvalidVersionSpecificationException {
+		if (keys[a] != UNPACKABLE && keys[b] != UNPACKABLE) {
+			return keys[a] < keys[b] ? -1 : (keys[a] == keys[b] ? 0 : 1);
+		}
+		return getVersion(a).compareTo(getVersion(b));
+	}
+
+	private Version getVersion(int i) throws InvalidVersionSpecificationException {
+		Version version = parsed[i];
+		if (version == null) {
+			version = VERSION_SCHEME.parseVersion(versions[i]);
+			parsed[i] = version;
+		}
+		return version;
+	}
+
+	/**
+	 * @return the packed key of the version or {@link #UNPACKABLE}: four 13 bit numeric segments, the 3 bit rank of
+	 *         the qualifier and an 8 bit qualifier number.
+	 */
+	static long pack(String version) {
+		int length = version.length();
+		int pos = 0;
+		long key = 0;
+		int segments = 0;
+		while (true) {
+			int start = pos;
+			int value = 0;
+			while (pos < length && pos - start < 5 && isDigit(version.charAt(pos))) {
+				value = value * 10 + version.charAt(pos) - '0';
+				pos++;
+			}
+			if (pos == start || pos - start == 5 || value > MAX_SEGMENT || segments == SEGMENTS) {
+				return UNPACKABLE;
+			}
+			key = key << SEGMENT_BITS | value;
+			segments++;
+			if (pos == length) {
+				break;
+			}
+			char separator = version.charAt(pos);
+			if (separator != '.' && separator != '-') {
+				// a qualifier must be separated
+				return UNPACKABLE;
+			}
+			pos++;
+			if (pos < length && !isDigit(version.charAt(pos))) {
+				break;
+			}
+		}
+		for (; segments < SEGMENTS; segments++) {
+			key <<= SEGMENT_BITS;
+		}
+		if (pos == length) {
+			return key << 11 | RELEASE << 8;
+		}
+
+		int start = pos;
+		while (pos < length && isLetter(version.charAt(pos))) {
+			pos++;
+		}
+		String word = version.substring(start, pos).toLowerCase(Locale.ENGLISH);
+		boolean digitFollows = pos < length && isDigit(version.charAt(pos));
+		if (pos < length && !digitFollows) {
+			char separator = version.charAt(pos);
+			if ((separator != '-' && separator != '.') || pos + 1 == length || !isDigit(version.charAt(pos + 1))) {
+				return UNPACKABLE;
+			}
+			pos++;
+		}
+		int number = 0;
+		start = pos;
+		while (pos < length && pos - start < 4 && isDigit(version.charAt(pos))) {
+			number = number * 10 + version.charAt(pos) - '0';
+			pos++;
+		}
+		if (pos < length || number > MAX_QUALIFIER_NUMBER) {
+			return UNPACKABLE;
+		}
+		boolean numbered = pos > start;
+
+		int rank = rank(word, digitFollows);
+		if (rank == 0 || (numbered && (rank == SNAPSHOT || rank == RELEASE))) {
+			return UNPACKABLE;
+		}
+		return key << 11 | (long) rank << 8 | number;
+	}
+
+	private static int rank(String word, boolean digitFollows) {
+		if ("alpha".equals(word) || ("a".equals(word) && digitFollows)) {
+			return ALPHA;
+		} else if ("beta".equals(word) || ("b".equals(word) && digitFollows)) {
+			return BETA;
+		} else if ("milestone".equals(word) || ("m".equals(word) && digitFollows)) {
+			return MILESTONE;
+		} else if ("rc".equals(word) || "cr".equals(word)) {
+			return RC;
+		} else if ("snapshot".equals(word)) {
+			return SNAPSHOT;
+		} else if ("ga".equals(word) || "final".equals(word)) {
+			return RELEASE;
+		} else if ("sp".equals(word)) {
+			return SP;
+		}
+		return 0;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isLetter(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+}
@@ -0,0 +1,149 @@
+package org.kloeckner.maven.plugin.util;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An element of a POM read by {@link PomRewriter}.
+ * <p>
+ * Only the element structure, the text of elements without child elements and the character offsets within the
+ * original file are kept. Attributes, comments and whitespace stay in the file content and are never touched.
+ */
+public class PomElement {
+
+	private final PomRewriter document;
+
+	private final PomElement parent;
+
+	private final String name;
+
+	private List<PomElement> children;
+
+	private String text;
+
+	/** offset of the '&lt;' of the start tag */
+	final int start;
+
+	/** offset right after the start tag */
+	final int contentStart;
+
+	/** offset of the '&lt;' of the end tag, equal to {@link #start} for an empty element tag */
+	int contentEnd;
+
+	/** offset right after the end tag */
+	int end;
+
+	/** offset of the first character of the text, -1 if there is none */
+	int textStart = -1;
+
+	/** offset right after the last character of the text */
+	int textEnd = -1;
+
+	PomElement(PomRewriter document, PomElement parent, String name, int start, int contentStart) {
+		this.document = document;
+		this.parent = parent;
+		this.name = name;
+		this.start = start;
+		this.contentStart = contentStart;
+		if (parent != null) {
+			if (parent.children == null) {
+				parent.children = new ArrayList<PomElement>(4);
+			}
+			parent.children.add(this);
+		}
+	}
+
+	public PomRewriter getDocument() {
+		return document;
+	}
+
+	public PomElement getParent() {
+		return parent;
+	}
+
+	/**
+	 * @return the local name of the element.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the first child element with the given local name, or <code>null</code>.
+	 */
+	public PomElement getChild(String childName) {
+		if (children != null) {
+			for (PomElement child : children) {
+				if (child.name.equals(childName)) {
+					return child;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return all child elements with the given local name.
+	 */
+	public List<PomElement> getChildren(String childName) {
+		if (children == null) {
+			return Collections.emptyList();
+		}
+		List<PomElement> list = new ArrayList<PomElement>();
+		for (PomElement child : children) {
+			if (child.name.equals(childName)) {
+				list.add(child);
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * @return all child elements.
+	 */
+	public List<PomElement> getChildren() {
+		if (children == null) {
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(children);
+	}
+
+	/**
+	 * @return the text content with entities expanded, or an empty string for elements with child elements.
+	 */
+	public String getText() {
+		return text == null ? "" : text;
+	}
+
+	public String getTextTrim() {
+		return getText().trim();
+	}
+
+	void setText(String text) {
+		this.text = text;
+	}
+
+	boolean isEmptyElementTag() {
+		return contentEnd == start;
+	}
+
+	@Override
+	public String toString() {
+		return "[PomElement: <" + name + "/>]";
+	}
+}
@@ -0,0 +1,228 @@
+package org.kloeckner.maven.plugin.util;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.maven.artifact.ArtifactUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Index of all versioned artifact references of a POM, built in a single traversal.
+ * <p>
+ * Covers the parent, dependencies, managed dependencies, build plugins, managed plugins and build extensions of the
+ * project and of every profile. The references are indexed by their versionless key, and references whose version
+ * is a property expression are additionally indexed by the property name.
+ */
+public class PomIndex {
+
+	private static final String PROFILE = "profiles/profile/";
+
+	/** paths of the indexed elements, relative to the project or a profile */
+	private static final Set<String> PATHS = new HashSet<String>(Arrays.asList("parent", "dependencies/dependency", "dependencyManagement/dependencies/dependency", "build/plugins/plugin",
+			"build/pluginManagement/plugins/plugin", "build/extensions/extension"));
+
+	/** all prefixes of {@link #PATHS}, the only subtrees that are visited */
+	private static final Set<String> PREFIXES = new HashSet<String>();
+
+	static {
+		for (String path : PATHS) {
+			for (int i = path.indexOf('/'); i > 0; i = path.indexOf('/', i + 1)) {
+				PREFIXES.add(path.substring(0, i));
+			}
+		}
+	}
+
+	/**
+	 * A versioned reference to an artifact.
+	 */
+	public static class Reference {
+
+		private final PomElement element;
+
+		private final PomElement versionElement;
+
+		private final String key;
+
+		private final String artifactId;
+
+		private final String rawVersion;
+
+		Reference(PomElement element, PomElement versionElement, String key, String artifactId) {
+			this.element = element;
+			this.versionElement = versionElement;
+			this.key = key;
+			this.artifactId = artifactId;
+			this.rawVersion = versionElement.getTextTrim();
+		}
+
+		/**
+		 * @return the <code>dependency</code>, <code>plugin</code>, <code>extension</code> or <code>parent</code>
+		 *         element.
+		 */
+		public PomElement getElement() {
+			return element;
+		}
+
+		public PomElement getVersionElement() {
+			return versionElement;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		public String getArtifactId() {
+			return artifactId;
+		}
+
+		/**
+		 * @return the trimmed version as written in the POM.
+		 */
+		public String getRawVersion() {
+			return rawVersion;
+		}
+
+		/**
+		 * @return the expression of a <code>${...}</code> version, otherwise <code>null</code>.
+		 */
+		public String getVersionExpression() {
+			if (rawVersion.startsWith("${") && rawVersion.endsWith("}") && rawVersion.length() > 3) {
+				return rawVersion.substring(2, rawVersion.length() - 1);
+			}
+			return null;
+		}
+	}
+
+	private final Map<String, List<Reference>> byKey = new LinkedHashMap<String, List<Reference>>();
+
+	private final Map<String, List<Reference>> byProperty = new LinkedHashMap<String, List<Reference>>();
+
+	private final PomElement properties;
+
+	private int size;
+
+	public PomIndex(PomElement rootElement, ModelInterpolator interpolator) throws MojoExecutionException {
+		this.properties = rootElement.getChild("properties");
+		visit(rootElement, "", interpolator);
+	}
+
+	private void visit(PomElement element, String path, ModelInterpolator interpolator) throws MojoExecutionException {
+		for (PomElement child : element.getChildren()) {
+			String childPath = path.length() == 0 ? child.getName() : path + "/" + child.getName();
+			String relativePath = childPath.startsWith(PROFILE) ? childPath.substring(PROFILE.length()) : childPath;
+			if (PATHS.contains(relativePath)) {
+				add(child, interpolator);
+			} else if (PREFIXES.contains(relativePath) || PROFILE.startsWith(childPath + "/")) {
+				visit(child, childPath, interpolator);
+			}
+		}
+	}
+
+	private void add(PomElement element, ModelInterpolator interpolator) throws MojoExecutionException {
+		PomElement versionElement = element.getChild("version");
+		if (versionElement == null) {
+			// managed dependency or unversioned plugin
+			return;
+		}
+		String rawGroupId;
+		PomElement groupIdElement = element.getChild("groupId");
+		if (groupIdElement == null) {
+			if ("plugin".equals(element.getName())) {
+				rawGroupId = "org.apache.maven.plugins";
+			} else {
+				// incomplete dependency
+				return;
+			}
+		} else {
+			rawGroupId = groupIdElement.getTextTrim();
+		}
+		PomElement artifactIdElement = element.getChild("artifactId");
+		if (artifactIdElement == null) {
+			// incomplete element
+			return;
+		}
+		String groupId = interpolator.interpolate(rawGroupId);
+		String artifactId = interpolator.interpolate(artifactIdElement.getTextTrim());
+
+		Reference reference = new Reference(element, versionElement, ArtifactUtils.versionlessKey(groupId, artifactId), artifactId);
+		add(byKey, reference.getKey(), reference);
+		String expression = reference.getVersionExpression();
+		if (expression != null) {
+			add(byProperty, expression, reference);
+		}
+		size++;
+	}
+
+	private static void add(Map<String, List<Reference>> map, String key, Reference reference) {
+		List<Reference> list = map.get(key);
+		if (list == null) {
+			list = new ArrayList<Reference>(2);
+			map.put(key, list);
+		}
+		list.add(reference);
+	}
+
+	/**
+	 * @return the versionless keys of all references, in document order.
+	 */
+	public Set<String> getKeys() {
+		return Collections.unmodifiableSet(byKey.keySet());
+	}
+
+	/**
+	 * @return all references to the artifact with the given versionless key, in document order.
+	 */
+	public List<Reference> getReferences(String key) {
+		List<Reference> list = byKey.get(key);
+		return list == null ? Collections.<Reference> emptyList() : list;
+	}
+
+	/**
+	 * @return the expressions used as versions, in document order.
+	 */
+	public Set<String> getVersionExpressions() {
+		return Collections.unmodifiableSet(byProperty.keySet());
+	}
+
+	/**
+	 * @return all references whose version is <code>${expression}</code>, in document order.
+	 */
+	public List<Reference> getReferencesToProperty(String expression) {
+		List<Reference> list = byProperty.get(expression);
+		return list == null ? Collections.<Reference> emptyList() : list;
+	}
+
+	/**
+	 * @return the <code>properties</code> element of the project, or <code>null</code>.
+	 */
+	public PomElement getProperties() {
+		return properties;
+	}
+
+	/**
+	 * @return the number of indexed references.
+	 */
+	public int size() {
+		return size;
+	}
+}
@@ -0,0 +1,460 @@
+package org.kloeckner.maven.plugin.util;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.ReaderFactory;
+import org.codehaus.plexus.util.xml.XmlStreamReader;
+import org.codehaus.stax2.LocationInfo;
+import org.codehaus.stax2.XMLInputFactory2;
+import org.codehaus.stax2.XMLStreamReader2;
+
+import com.ctc.wstx.stax.WstxInputFactory;
+
+/**
+ * Rewrites values inside a POM without re-serializing it.
+ * <p>
+ * The POM is streamed once with StAX, recording the character offsets of every element. Rewriting a value only
+ * records a replacement for the text between the start and end tag; when the document is written, the original
+ * content is copied verbatim and only the replaced ranges are spliced in. Formatting, comments, attribute order and
+ * the prolog are therefore preserved exactly.
+ */
+public class PomRewriter {
+
+	private static final XMLInputFactory2 FACTORY = createFactory();
+
+	private static final Pattern XML_ENCODING = Pattern.compile("\\s*<\\?xml[^>]*encoding\\s*=\\s*[\"']([^\"']+)[\"']");
+
+	/** encoding buffers, reused by every thread for all POMs it writes */
+	private static final ThreadLocal<ByteBuffer> BUFFERS = new ThreadLocal<ByteBuffer>();
+
+	private final String content;
+
+	private final String encoding;
+
+	private final PomElement rootElement;
+
+	private boolean byteOrderMark;
+
+	/** replacements of the original content, keyed by start offset */
+	private final TreeMap<Integer, Replacement> replacements = new TreeMap<Integer, Replacement>();
+
+	/** values given to {@link #rewriteValue(PomElement, String)}, by element */
+	private final Map<PomElement, String> values = new IdentityHashMap<PomElement, String>();
+
+	private static final class Replacement {
+
+		private final int end;
+
+		private final String text;
+
+		Replacement(int end, String text) {
+			this.end = end;
+			this.text = text;
+		}
+	}
+
+	private PomRewriter(String content, String encoding) throws XMLStreamException {
+		this.content = content;
+		this.encoding = encoding;
+		this.rootElement = parse();
+	}
+
+	private static XMLInputFactory2 createFactory() {
+		XMLInputFactory2 factory = new WstxInputFactory();
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		return factory;
+	}
+
+	/**
+	 * Reads the given POM, detecting its encoding like Maven does.
+	 */
+	public static PomRewriter read(File pomFile) throws IOException, XMLStreamException {
+		Object event = FlightRecorderEvents.beginPomRead();
+		long size = -1;
+		XmlStreamReader reader = null;
+		try {
+			byte[] bytes = Files.readAllBytes(pomFile.toPath());
+			size = bytes.length;
+			reader = ReaderFactory.newXmlReader(new ByteArrayInputStream(bytes));
+			String content = IOUtil.toString(reader);
+			PomRewriter pom = new PomRewriter(content, reader.getEncoding());
+			pom.byteOrderMark = hasByteOrderMark(bytes);
+			return pom;
+		} finally {
+			IOUtil.close(reader);
+			FlightRecorderEvents.endPomRead(event, pomFile, size);
+		}
+	}
+
+	private static boolean hasByteOrderMark(byte[] bytes) {
+		if (bytes.length >= 3 && (bytes[0] & 0xff) == 0xef && (bytes[1] & 0xff) == 0xbb && (bytes[2] & 0xff) == 0xbf) {
+			return true;
+		}
+		return bytes.length >= 2 && ((bytes[0] & 0xff) == 0xfe && (bytes[1] & 0xff) == 0xff || (bytes[0] & 0xff) == 0xff && (bytes[1] & 0xff) == 0xfe);
+	}
+
+	/**
+	 * Parses the given POM content.
+	 */
+	public static PomRewriter parse(String content) throws XMLStreamException {
+		return new PomRewriter(content, null);
+	}
+
+	private PomElement parse() throws XMLStreamException {
+		XMLStreamReader2 reader = (XMLStreamReader2) FACTORY.createXMLStreamReader(new StringReader(content));
+		try {
+			PomElement root = null;
+			PomElement current = null;
+			StringBuilder text = new StringBuilder();
+			boolean leaf = false;
+			while (reader.hasNext()) {
+				int event = reader.next();
+				switch (event) {
+				case XMLStreamConstants.START_ELEMENT:
+					LocationInfo startTag = reader.getLocationInfo();
+					current = new PomElement(this, current, reader.getLocalName(), (int) startTag.getStartingCharOffset(), (int) startTag.getEndingCharOffset());
+					if (root == null) {
+						root = current;
+					}
+					text.setLength(0);
+					leaf = true;
+					if ("configuration".equals(current.getName())) {
+						// arbitrary plugin configuration, nothing to rewrite in there
+						reader.skipElement();
+						current.contentEnd = (int) reader.getLocationInfo().getStartingCharOffset();
+						current.end = (int) reader.getLocationInfo().getEndingCharOffset();
+						current = current.getParent();
+						leaf = false;
+					}
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+					if (leaf) {
+						String chars = reader.getText();
+						text.append(chars);
+						if (chars.trim().length() > 0) {
+							LocationInfo location = reader.getLocationInfo();
+							recordText(current, (int) location.getStartingCharOffset(), (int) location.getEndingCharOffset(), event == XMLStreamConstants.CDATA);
+						}
+					}
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					LocationInfo endTag = reader.getLocationInfo();
+					current.contentEnd = (int) endTag.getStartingCharOffset();
+					current.end = (int) endTag.getEndingCharOffset();
+					if (leaf) {
+						current.setText(text.toString());
+					}
+					current = current.getParent();
+					leaf = false;
+					break;
+				default:
+					break;
+				}
+			}
+			if (root == null) {
+				throw new XMLStreamException("no root element");
+			}
+			return root;
+		} finally {
+			reader.closeCompletely();
+		}
+	}
+
+	/**
+	 * Extends the text range of the element by the given text event, without the whitespace around plain text. A
+	 * CDATA section is taken as a whole, including its markup.
+	 */
+	private void recordText(PomElement element, int start, int end, boolean cdata) {
+		if (!cdata) {
+			while (start < end && Character.isWhitespace(content.charAt(start))) {
+				start++;
+			}
+			while (end > start && Character.isWhitespace(content.charAt(end - 1))) {
+				end--;
+			}
+		}
+		if (element.textStart < 0) {
+			element.textStart = start;
+		}
+		element.textEnd = end;
+	}
+
+	public PomElement getRootElement() {
+		return rootElement;
+	}
+
+	/**
+	 * @return the encoding the POM was read with, or <code>null</code> if it was parsed from a string.
+	 */
+	public String getEncoding() {
+		return encoding;
+	}
+
+	/**
+	 * Replaces the text of the given element, keeping the whitespace around it. The range replaced is the one the text
+	 * was parsed from, from its first to its last non-whitespace character, so comments before or after the value stay
+	 * as they are while entities and CDATA sections making up the value are replaced. A value that is already present
+	 * is not recorded as a change.
+	 */
+	public void rewriteValue(PomElement element, String value) {
+		values.put(element, value);
+		String escaped = escape(value);
+		if (element.isEmptyElementTag()) {
+			String qualifiedName = getQualifiedName(element);
+			replace(element.start, element.end, "<" + qualifiedName + ">" + escaped + "</" + qualifiedName + ">");
+			return;
+		}
+		if (element.textStart >= 0) {
+			replace(element.textStart, element.textEnd, escaped);
+			return;
+		}
+		// no text yet, only whitespace or comments: append to them
+		replace(element.contentStart, element.contentEnd, content.substring(element.contentStart, element.contentEnd) + escaped);
+	}
+
+	/**
+	 * @return the trimmed text of the given element as it will be written, which is the last value it was rewritten to
+	 *         if any.
+	 */
+	public String getValue(PomElement element) {
+		String value = values.get(element);
+		return value != null ? value.trim() : element.getTextTrim();
+	}
+
+	/**
+	 * Inserts the given markup right after the end tag of the given element.
+	 */
+	public void insertAfter(PomElement element, String markup) {
+		Replacement previous = replacements.get(element.end);
+		if (previous != null) {
+			markup = previous.text + markup;
+		}
+		replacements.put(element.end, new Replacement(element.end, markup));
+	}
+
+	/**
+	 * @return the whitespace preceding the start tag of the given element on its line, used to indent inserted
+	 *         elements like their siblings.
+	 */
+	public String getIndentation(PomElement element) {
+		int i = element.start;
+		while (i > 0 && (content.charAt(i - 1) == ' ' || content.charAt(i - 1) == '\t')) {
+			i--;
+		}
+		return content.substring(i, element.start);
+	}
+
+	private void replace(int start, int end, String text) {
+		if (text.length() == end - start && content.regionMatches(start, text, 0, text.length())) {
+			// back to the original
+			replacements.remove(start);
+		} else {
+			replacements.put(start, new Replacement(end, text));
+		}
+	}
+
+	/**
+	 * @return whether any value was changed.
+	 */
+	public boolean isModified() {
+		return !replacements.isEmpty();
+	}
+
+	/**
+	 * @return the original content with all replacements spliced in.
+	 */
+	public String getContent() {
+		if (replacements.isEmpty()) {
+			return content;
+		}
+		StringBuilder sb = new StringBuilder(content.length() + 16 * replacements.size());
+		int pos = 0;
+		for (Map.Entry<Integer, Replacement> entry : replacements.entrySet()) {
+			int start = entry.getKey().intValue();
+			sb.append(content, pos, start);
+			sb.append(entry.getValue().text);
+			pos = Math.max(start, entry.getValue().end);
+		}
+		sb.append(content, pos, content.length());
+		return sb.toString();
+	}
+
+	/**
+	 * Writes the content with all replacements to the given file, in the encoding it was read with and with its byte
+	 * order mark, if any.
+	 * <p>
+	 * The content is encoded once into a buffer that is reused by the thread and written with a single channel to a
+	 * temporary file in the same directory, which then atomically replaces the target. A crash while writing never
+	 * leaves a truncated POM behind.
+	 * 
+	 * @param sync whether the file and its directory are forced to disk before and after the replacement
+	 */
+	public void write(File file, boolean sync) throws IOException {
+		Object event = FlightRecorderEvents.beginPomWrite();
+		ByteBuffer bytes = encode(getContent());
+		int size = bytes.remaining();
+		File dir = file.getAbsoluteFile().getParentFile();
+		File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+		FileChannel channel = null;
+		try {
+			channel = new FileOutputStream(tmp).getChannel();
+			while (bytes.hasRemaining()) {
+				channel.write(bytes);
+			}
+			if (sync) {
+				channel.force(true);
+			}
+			channel.close();
+			channel = null;
+			copyPermissions(file, tmp);
+			try {
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			if (sync) {
+				syncDirectory(dir);
+			}
+		} finally {
+			IOUtil.close(channel);
+			tmp.delete();
+			FlightRecorderEvents.endPomWrite(event, file, size);
+		}
+	}
+
+	private ByteBuffer encode(String text) throws CharacterCodingException {
+		Charset charset = Charset.forName(getWriteEncoding());
+		// the UTF-16 encoder writes a byte order mark by itself
+		if (byteOrderMark && !"UTF-16".equals(charset.name())) {
+			text = '\uFEFF' + text;
+		}
+		CharsetEncoder encoder = charset.newEncoder();
+		CharBuffer in = CharBuffer.wrap(text);
+		ByteBuffer out = BUFFERS.get();
+		int estimate = (int) (text.length() * encoder.averageBytesPerChar()) + 16;
+		if (out == null || out.capacity() < estimate) {
+			out = ByteBuffer.allocateDirect(Math.max(estimate, 8192));
+		}
+		out.clear();
+		while (true) {
+			CoderResult result = in.hasRemaining() ? encoder.encode(in, out, true) : CoderResult.UNDERFLOW;
+			if (result.isUnderflow()) {
+				result = encoder.flush(out);
+			}
+			if (result.isUnderflow()) {
+				break;
+			}
+			if (result.isOverflow()) {
+				ByteBuffer larger = ByteBuffer.allocateDirect(out.capacity() * 2);
+				out.flip();
+				larger.put(out);
+				out = larger;
+			} else {
+				result.throwException();
+			}
+		}
+		BUFFERS.set(out);
+		out.flip();
+		return out;
+	}
+
+	/**
+	 * @return the encoding the POM was read with, or the one its XML declaration names.
+	 */
+	private String getWriteEncoding() {
+		if (encoding != null) {
+			return encoding;
+		}
+		Matcher matcher = XML_ENCODING.matcher(content);
+		return matcher.lookingAt() ? matcher.group(1) : "UTF-8";
+	}
+
+	private static void copyPermissions(File from, File to) {
+		if (!from.isFile()) {
+			return;
+		}
+		try {
+			Files.setPosixFilePermissions(to.toPath(), Files.getPosixFilePermissions(from.toPath()));
+		} catch (UnsupportedOperationException e) {
+			// not a POSIX file system
+		} catch (IOException e) {
+			// keep the default permissions
+		}
+	}
+
+	private static void syncDirectory(File dir) {
+		FileChannel channel = null;
+		try {
+			channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+			channel.force(true);
+		} catch (IOException e) {
+			// directories can't be opened on every platform
+		} finally {
+			IOUtil.close(channel);
+		}
+	}
+
+	/**
+	 * @return the unmodified content as read.
+	 */
+	public String getOriginalContent() {
+		return content;
+	}
+
+	private String getQualifiedName(PomElement element) {
+		int i = element.start + 1;
+		while (i < content.length() && !Character.isWhitespace(content.charAt(i)) && content.charAt(i) != '/' && content.charAt(i) != '>') {
+			i++;
+		}
+		return content.substring(element.start + 1, i);
+	}
+
+	private static String escape(String value) {
+		if (value.indexOf('&') < 0 && value.indexOf('<') < 0 && value.indexOf('>') < 0) {
+			return value;
+		}
+		return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+	}
+}
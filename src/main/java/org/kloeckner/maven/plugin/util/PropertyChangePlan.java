@@ -0,0 +1,134 @@
+package org.kloeckner.maven.plugin.util;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Updates of properties a module inherits, planned for the POM of the reactor that defines them.
+ * <p>
+ * The updates are grouped by POM file and by property, so however many modules inherit a property, its POM is read and
+ * written once. Every artifact is planned once per property: modules inheriting the same property from the same POM
+ * agree on its value.
+ */
+public class PropertyChangePlan {
+
+	/**
+	 * An artifact whose version is the property.
+	 */
+	public static class Update {
+
+		private final String key;
+
+		private final String originalVersion;
+
+		private final String mappedVersion;
+
+		private final String project;
+
+		public Update(String key, String originalVersion, String mappedVersion, String project) {
+			this.key = key;
+			this.originalVersion = originalVersion;
+			this.mappedVersion = mappedVersion;
+			this.project = project;
+		}
+
+		/**
+		 * @return the versionless key of the artifact.
+		 */
+		public String getKey() {
+			return key;
+		}
+
+		/**
+		 * @return the version the artifact has now, i.e. the current value of the property.
+		 */
+		public String getOriginalVersion() {
+			return originalVersion;
+		}
+
+		public String getMappedVersion() {
+			return mappedVersion;
+		}
+
+		/**
+		 * @return the id of the project the update was planned for.
+		 */
+		public String getProject() {
+			return project;
+		}
+	}
+
+	/** POM file, property, artifact key */
+	private final Map<File, Map<String, Map<String, Update>>> updates = new LinkedHashMap<File, Map<String, Map<String, Update>>>();
+
+	public synchronized void add(File pom, String property, Update update) {
+		File file = canonical(pom);
+		Map<String, Map<String, Update>> properties = updates.get(file);
+		if (properties == null) {
+			properties = new LinkedHashMap<String, Map<String, Update>>();
+			updates.put(file, properties);
+		}
+		Map<String, Update> artifacts = properties.get(property);
+		if (artifacts == null) {
+			artifacts = new LinkedHashMap<String, Update>();
+			properties.put(property, artifacts);
+		}
+		if (!artifacts.containsKey(update.getKey())) {
+			artifacts.put(update.getKey(), update);
+		}
+	}
+
+	public synchronized boolean isEmpty() {
+		return updates.isEmpty();
+	}
+
+	/**
+	 * @return the canonical files of the POMs to update.
+	 */
+	public synchronized List<File> getFiles() {
+		return new ArrayList<File>(updates.keySet());
+	}
+
+	/**
+	 * @return the updates of the given POM, by property.
+	 */
+	public synchronized Map<String, List<Update>> getUpdates(File pom) {
+		Map<String, List<Update>> result = new LinkedHashMap<String, List<Update>>();
+		Map<String, Map<String, Update>> properties = updates.get(canonical(pom));
+		if (properties != null) {
+			for (Map.Entry<String, Map<String, Update>> e : properties.entrySet()) {
+				result.put(e.getKey(), new ArrayList<Update>(e.getValue().values()));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the file with a canonical path, so different paths to the same POM are grouped.
+	 */
+	public static File canonical(File file) {
+		try {
+			return file.getCanonicalFile();
+		} catch (IOException e) {
+			return file.getAbsoluteFile();
+		}
+	}
+}
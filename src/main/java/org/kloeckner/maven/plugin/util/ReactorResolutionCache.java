@@ -0,0 +1,245 @@
+package org.kloeckner.maven.plugin.util;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.SessionData;
+
+/**
+ * Rules and resolved versions shared by all executions of the plugin within one Maven session.
+ * <p>
+ * The instance lives in the {@link SessionData} of the repository session, so every module of a reactor build sees
+ * the same one. Every rules file is loaded and the versions of every artifact are fetched at most once per build,
+ * even if several modules ask for them at the same time. The POM files are locked by path, so no two executions
+ * rewrite the same file at once.
+ */
+public class ReactorResolutionCache {
+
+	private static final String KEY = ReactorResolutionCache.class.getName();
+
+	private final ConcurrentMap<String, FutureTask<RuleCatalog>> rules = new ConcurrentHashMap<String, FutureTask<RuleCatalog>>();
+
+	private final ConcurrentMap<String, FutureTask<Map<String, String>>> versionMaps = new ConcurrentHashMap<String, FutureTask<Map<String, String>>>();
+
+	private final ConcurrentMap<String, FutureTask<PackedVersions>> versionLists = new ConcurrentHashMap<String, FutureTask<PackedVersions>>();
+
+	private final ConcurrentMap<String, FutureTask<LocalRepositoryIndex>> localIndexes = new ConcurrentHashMap<String, FutureTask<LocalRepositoryIndex>>();
+
+	private final ConcurrentMap<String, FutureTask<LockFile>> lockFiles = new ConcurrentHashMap<String, FutureTask<LockFile>>();
+
+	private final RepositoryLatencies repositoryLatencies = new RepositoryLatencies();
+
+	private final StripedFileLocks pomLocks = new StripedFileLocks(64);
+
+	private RepositoryCircuitBreaker circuitBreaker;
+
+	private ExecutorService hedgeExecutor;
+
+	private final Map<RuleCatalog, ArtifactPrefilter> prefilters = new IdentityHashMap<RuleCatalog, ArtifactPrefilter>();
+
+	private volatile VersionRangeCache persistentCache;
+
+	ReactorResolutionCache() {
+		// use get(RepositorySystemSession)
+	}
+
+	public static ReactorResolutionCache get(RepositorySystemSession session) {
+		SessionData data = session.getData();
+		ReactorResolutionCache cache = (ReactorResolutionCache) data.get(KEY);
+		if (cache == null) {
+			data.set(KEY, null, new ReactorResolutionCache());
+			cache = (ReactorResolutionCache) data.get(KEY);
+		}
+		return cache;
+	}
+
+	/**
+	 * @param key identifies the rules file, see {@link #rulesKey(String, String)}
+	 * @return the rules of the file, calling the loader only on first access.
+	 */
+	public RuleCatalog getRules(String key, Callable<RuleCatalog> loader) throws MojoExecutionException {
+		return compute(rules, key, loader);
+	}
+
+	/**
+	 * @return a key identifying the rules file, independent of how its path was specified.
+	 */
+	public static String rulesKey(String path, String filename) {
+		File file = new File(path == null ? "" : path, filename == null ? "version-range-maven-plugin.properties" : filename);
+		try {
+			return file.getCanonicalPath();
+		} catch (IOException e) {
+			return file.getAbsolutePath();
+		}
+	}
+
+	/**
+	 * @param key identifies the rules and the repositories they are resolved against
+	 * @return the map of versionless keys to the newest versions of the rules, computed only once per build. The map
+	 *         must not be modified.
+	 */
+	public Map<String, String> getVersionMap(String key, Callable<Map<String, String>> resolver) throws MojoExecutionException {
+		return compute(versionMaps, key, resolver);
+	}
+
+	/**
+	 * @return whether the version map of the given key is computed or being computed.
+	 */
+	public boolean hasVersionMap(String key) {
+		return versionMaps.containsKey(key);
+	}
+
+	/**
+	 * @param key identifies the artifact and the repositories its versions are fetched from, see
+	 *            {@link VersionRangeCache#key(org.eclipse.aether.artifact.Artifact, List)}
+	 * @return all available versions of the artifact, calling the resolver only if no other execution did so before.
+	 */
+	public PackedVersions getVersions(String key, Callable<PackedVersions> resolver) throws MojoExecutionException {
+		return compute(versionLists, key, resolver);
+	}
+
+	/**
+	 * @param key identifies the index file
+	 * @return the local repository index, loaded and refreshed only once per build.
+	 */
+	public LocalRepositoryIndex getLocalIndex(String key, Callable<LocalRepositoryIndex> loader) throws MojoExecutionException {
+		return compute(localIndexes, key, loader);
+	}
+
+	/**
+	 * @param key identifies the lockfile
+	 * @return the lockfile, created only once per build, so all executions add to the same one.
+	 */
+	public LockFile getLockFile(String key, Callable<LockFile> loader) throws MojoExecutionException {
+		return compute(lockFiles, key, loader);
+	}
+
+	/**
+	 * @param rules rules returned by {@link #getRules(String, Callable)}
+	 * @return the prefilter for the artifacts of the exact rules, built once per catalog. Catalogs are told apart by
+	 *         identity, as the catalog of a rules file is the same instance for the whole build.
+	 */
+	public synchronized ArtifactPrefilter getPrefilter(RuleCatalog rules) {
+		ArtifactPrefilter prefilter = prefilters.get(rules);
+		if (prefilter == null) {
+			prefilter = ArtifactPrefilter.forKeys(rules.getExactKeys());
+			prefilters.put(rules, prefilter);
+		}
+		return prefilter;
+	}
+
+	/**
+	 * @return the number of version lists fetched so far.
+	 */
+	public int getResolvedCount() {
+		return versionLists.size();
+	}
+
+	/**
+	 * @return the latency estimates of the remote repositories, learned by all executions.
+	 */
+	public RepositoryLatencies getRepositoryLatencies() {
+		return repositoryLatencies;
+	}
+
+	/**
+	 * @return the executor of the hedged requests of all executions. Its threads are daemons and end after a minute
+	 *         without work, so the executor needs no shutdown.
+	 */
+	public synchronized ExecutorService getHedgeExecutor() {
+		if (hedgeExecutor == null) {
+			hedgeExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "version-range-hedge-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return hedgeExecutor;
+	}
+
+	/**
+	 * @return the locks held while a POM is read, transformed and written.
+	 */
+	public StripedFileLocks getPomLocks() {
+		return pomLocks;
+	}
+
+	/**
+	 * @return the circuit breaker shared by all executions, created with the settings of the first one asking for it.
+	 */
+	public synchronized RepositoryCircuitBreaker getCircuitBreaker(int threshold, long cooldownMillis) {
+		if (circuitBreaker == null) {
+			circuitBreaker = new RepositoryCircuitBreaker(threshold, cooldownMillis);
+		}
+		return circuitBreaker;
+	}
+
+	/**
+	 * @return the persistent cache shared by all executions, or <code>null</code> if none was registered yet.
+	 */
+	public VersionRangeCache getPersistentCache() {
+		return persistentCache;
+	}
+
+	public synchronized VersionRangeCache setPersistentCacheIfAbsent(VersionRangeCache cache) {
+		if (persistentCache == null) {
+			persistentCache = cache;
+		}
+		return persistentCache;
+	}
+
+	private static <T> T compute(ConcurrentMap<String, FutureTask<T>> map, String key, Callable<T> callable) throws MojoExecutionException {
+		FutureTask<T> task = map.get(key);
+		if (task == null) {
+			FutureTask<T> newTask = new FutureTask<T>(callable);
+			task = map.putIfAbsent(key, newTask);
+			if (task == null) {
+				task = newTask;
+				task.run();
+			}
+		}
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MojoExecutionException("interrupted while waiting for " + key, e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof MojoExecutionException) {
+				throw (MojoExecutionException) e.getCause();
+			}
+			throw new MojoExecutionException("unable to compute " + key, e.getCause());
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package org.kloeckner.maven.plugin.util;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.transfer.MetadataNotFoundException;
+import org.eclipse.aether.transfer.MetadataTransferException;
+
+/**
+ * Skips remote repositories that keep failing.
+ * <p>
+ * A repository is closed, i.e. asked, until it failed the given number of times in a row. Then it is open and skipped
+ * for the cooldown. After that a single request is let through: if it succeeds the repository is closed again,
+ * otherwise it stays open for another cooldown. Missing metadata is an answer, not a failure.
+ * <p>
+ * State changes are collected as events, so the executions of the plugin can log them.
+ */
+public class RepositoryCircuitBreaker {
+
+	private static final class Circuit {
+
+		private int failures;
+
+		private long openedAt = -1;
+
+		/** start of the request let through after the cooldown */
+		private long trialAt = -1;
+	}
+
+	private final int threshold;
+
+	private final long cooldownMillis;
+
+	private final Map<String, Circuit> circuits = new HashMap<String, Circuit>();
+
+	private final List<String> events = new ArrayList<String>();
+
+	/**
+	 * @param threshold the number of consecutive failures opening the circuit of a repository
+	 * @param cooldownMillis the time a repository is skipped
+	 */
+	public RepositoryCircuitBreaker(int threshold, long cooldownMillis) {
+		this.threshold = threshold;
+		this.cooldownMillis = cooldownMillis;
+	}
+
+	/**
+	 * @return whether the exception reports a repository that could not be reached or answered with an error.
+	 */
+	public static boolean isFailure(Throwable e) {
+		return e instanceof MetadataTransferException && !(e instanceof MetadataNotFoundException);
+	}
+
+	/**
+	 * @return the repositories that may be asked now. A repository whose cooldown is over is included by one call only,
+	 *         and by the next one only after another cooldown without a result.
+	 */
+	public synchronized List<RemoteRepository> filter(List<RemoteRepository> repositories) {
+		List<RemoteRepository> allowed = new ArrayList<RemoteRepository>(repositories.size());
+		long now = System.currentTimeMillis();
+		for (RemoteRepository repository : repositories) {
+			Circuit circuit = circuits.get(repository.getId());
+			if (circuit == null || circuit.openedAt < 0) {
+				allowed.add(repository);
+			} else if (now - Math.max(circuit.openedAt, circuit.trialAt) >= cooldownMillis) {
+				circuit.trialAt = now;
+				allowed.add(repository);
+			}
+		}
+		return allowed;
+	}
+
+	public synchronized void recordSuccess(RemoteRepository repository) {
+		Circuit circuit = circuits.get(repository.getId());
+		if (circuit == null) {
+			return;
+		}
+		if (circuit.openedAt >= 0) {
+			events.add("repository " + repository.getId() + " answers again, circuit closed");
+		}
+		circuit.failures = 0;
+		circuit.openedAt = -1;
+		circuit.trialAt = -1;
+	}
+
+	public synchronized void recordFailure(RemoteRepository repository) {
+		Circuit circuit = circuits.get(repository.getId());
+		if (circuit == null) {
+			circuit = new Circuit();
+			circuits.put(repository.getId(), circuit);
+		}
+		circuit.failures++;
+		if (circuit.trialAt >= 0) {
+			circuit.trialAt = -1;
+			circuit.openedAt = System.currentTimeMillis();
+			events.add("repository " + repository.getId() + " still fails, skipped for another " + cooldownMillis / 1000 + "s");
+		} else if (circuit.openedAt < 0 && circuit.failures >= threshold) {
+			circuit.openedAt = System.currentTimeMillis();
+			events.add("repository " + repository.getId() + " failed " + circuit.failures + " times in a row, circuit opened, skipped for " + cooldownMillis / 1000
+					+ "s");
+		}
+	}
+
+	/**
+	 * @return the state changes since the last call.
+	 */
+	public synchronized List<String> drainEvents() {
+		List<String> drained = new ArrayList<String>(events);
+		events.clear();
+		return drained;
+	}
+
+	/**
+	 * @return the state and the failures in a row of every repository that failed at least once, or <code>null</code>
+	 *         if none did.
+	 */
+	public synchronized String getStats() {
+		Map<String, Circuit> sorted = new TreeMap<String, Circuit>(circuits);
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, Circuit> e : sorted.entrySet()) {
+			Circuit circuit = e.getValue();
+			sb.append(sb.length() == 0 ? "" : ", ").append(e.getKey()).append(circuit.openedAt < 0 ? " closed" : " open");
+			sb.append(" (").append(circuit.failures).append(circuit.failures == 1 ? " failure)" : " failures)");
+		}
+		return sb.length() == 0 ? null : sb.toString();
+	}
+}
@@ -0,0 +1,102 @@
+package org.kloeckner.maven.plugin.util;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.aether.repository.RemoteRepository;
+
+/**
+ * Running latency estimates of remote repositories, an exponentially weighted moving average of the time their
+ * version range requests took.
+ * <p>
+ * A repository estimated too slow to be asked gets no new samples, so the time it was last asked is kept as well:
+ * once it is long enough ago, one caller may probe the repository to give it a chance to recover.
+ */
+public class RepositoryLatencies {
+
+	/** weight of the latest sample */
+	private static final double ALPHA = 0.3;
+
+	private final ConcurrentMap<String, Double> estimates = new ConcurrentHashMap<String, Double>();
+
+	private final ConcurrentMap<String, Long> lastAsked = new ConcurrentHashMap<String, Long>();
+
+	/**
+	 * Adds a sample. Failed and abandoned requests should be recorded with at least the time waited for them, so a
+	 * repository that does not answer becomes slow.
+	 */
+	public void record(RemoteRepository repository, long millis) {
+		String key = key(repository);
+		lastAsked.put(key, System.currentTimeMillis());
+		while (true) {
+			Double previous = estimates.get(key);
+			if (previous == null) {
+				if (estimates.putIfAbsent(key, Double.valueOf(millis)) == null) {
+					return;
+				}
+			} else if (estimates.replace(key, previous, previous + ALPHA * (millis - previous))) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return the estimated latency in milliseconds, or <code>-1</code> if the repository was never asked.
+	 */
+	public long getEstimate(RemoteRepository repository) {
+		Double estimate = estimates.get(key(repository));
+		return estimate == null ? -1 : Math.round(estimate);
+	}
+
+	/**
+	 * Claims the next probe of a repository. Only one of several callers asking at the same time gets it.
+	 *
+	 * @return whether the repository was not asked nor probed for the given time, so the caller should probe it.
+	 */
+	public boolean claimProbe(RemoteRepository repository, long intervalMillis) {
+		String key = key(repository);
+		long now = System.currentTimeMillis();
+		Long last = lastAsked.get(key);
+		if (last == null) {
+			return lastAsked.putIfAbsent(key, now) == null;
+		}
+		return now - last >= intervalMillis && lastAsked.replace(key, last, now);
+	}
+
+	/**
+	 * @return the repositories, fastest first. Repositories without an estimate come first, so they get one.
+	 */
+	public List<RemoteRepository> sort(List<RemoteRepository> repositories) {
+		List<RemoteRepository> sorted = new ArrayList<RemoteRepository>(repositories);
+		Collections.sort(sorted, new Comparator<RemoteRepository>() {
+			public int compare(RemoteRepository r1, RemoteRepository r2) {
+				long e1 = getEstimate(r1);
+				long e2 = getEstimate(r2);
+				return e1 < e2 ? -1 : (e1 == e2 ? 0 : 1);
+			}
+		});
+		return sorted;
+	}
+
+	private static String key(RemoteRepository repository) {
+		return repository.getId() + '=' + repository.getUrl();
+	}
+}
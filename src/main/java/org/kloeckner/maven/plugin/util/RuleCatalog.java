@@ -0,0 +1,346 @@
+package org.kloeckner.maven.plugin.util;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.codehaus.plexus.util.IOUtil;
+import org.eclipse.aether.util.version.GenericVersionScheme;
+import org.eclipse.aether.version.InvalidVersionSpecificationException;
+
+/**
+ * The rules of a rules file, split into exact rules and wildcard rules.
+ * <p>
+ * An exact rule names one <code>groupId:artifactId</code> and is resolved for the whole build. A wildcard rule applies
+ * to every artifact a POM declares that it matches:
+ * <ul>
+ * <li>a groupId of <code>*</code> matches every group, <code>com.acme.*</code> every group below
+ * <code>com.acme</code></li>
+ * <li>an artifactId of <code>*</code> matches every artifact, <code>wicket-*</code> every artifact starting with
+ * <code>wicket-</code></li>
+ * </ul>
+ * The wildcard rules are compiled into a trie of groupId segments, so matching an artifact walks its groupId once. The
+ * most specific rule wins: an exact group beats a group wildcard, a deeper group wildcard a shallower one, an exact
+ * artifactId a prefix and a longer prefix a shorter one.
+ * <p>
+ * A catalog can be stored in a small binary file, which is read instead of the rules file as long as that is
+ * unchanged, so the rules are neither parsed nor validated again.
+ */
+public class RuleCatalog {
+
+	private static final int MAGIC = 0x56525231; // "VRR1"
+
+	private static final GenericVersionScheme VERSION_SCHEME = new GenericVersionScheme();
+
+	private static final Comparator<String[]> LONGEST_PREFIX_FIRST = new Comparator<String[]>() {
+		public int compare(String[] p1, String[] p2) {
+			return p2[0].length() - p1[0].length();
+		}
+	};
+
+	/**
+	 * The artifactId patterns of the rules for one group pattern, mapped to the rest of the rule after the artifactId.
+	 */
+	private static final class Patterns {
+
+		private final Map<String, String> exact = new HashMap<String, String>();
+
+		/** prefix and rest, longest prefix first */
+		private final List<String[]> prefixes = new ArrayList<String[]>();
+
+		void add(String artifactPattern, String rest) {
+			if (artifactPattern.endsWith("*")) {
+				prefixes.add(new String[] { artifactPattern.substring(0, artifactPattern.length() - 1), rest });
+				Collections.sort(prefixes, LONGEST_PREFIX_FIRST);
+			} else {
+				exact.put(artifactPattern, rest);
+			}
+		}
+
+		String match(String artifactId) {
+			String rest = exact.get(artifactId);
+			if (rest != null) {
+				return rest;
+			}
+			for (String[] prefix : prefixes) {
+				if (artifactId.startsWith(prefix[0])) {
+					return prefix[1];
+				}
+			}
+			return null;
+		}
+	}
+
+	private static final class Node {
+
+		private final Map<String, Node> children = new HashMap<String, Node>(4);
+
+		/** rules for exactly this group */
+		private Patterns group;
+
+		/** rules for every group below this one */
+		private Patterns subgroups;
+	}
+
+	private final List<String> exactRules;
+
+	private final List<String> wildcardRules;
+
+	private final Node root = new Node();
+
+	/** exact rules by <code>groupId:artifactId</code>, in the order of the rules file */
+	private final Map<String, List<String>> exactRulesByKey = new LinkedHashMap<String, List<String>>();
+
+	/**
+	 * Splits and compiles the given rules, validating the wildcard rules.
+	 */
+	public RuleCatalog(List<String> rules) throws MojoExecutionException {
+		this.exactRules = new ArrayList<String>();
+		this.wildcardRules = new ArrayList<String>();
+		for (String rule : rules) {
+			if (isWildcard(rule)) {
+				validate(rule);
+				wildcardRules.add(rule);
+			} else {
+				exactRules.add(rule);
+			}
+		}
+		compile();
+	}
+
+	private RuleCatalog(List<String> exactRules, List<String> wildcardRules) {
+		this.exactRules = exactRules;
+		this.wildcardRules = wildcardRules;
+		compile();
+	}
+
+	private static boolean isWildcard(String rule) {
+		int idx = rule.indexOf(':');
+		idx = idx < 0 ? -1 : rule.indexOf(':', idx + 1);
+		return rule.substring(0, idx < 0 ? rule.length() : idx).indexOf('*') >= 0;
+	}
+
+	private static void validate(String rule) throws MojoExecutionException {
+		String[] parts = rule.split(":");
+		if (parts.length < 3 || parts.length > 5) {
+			throw new MojoExecutionException("invalid rule '" + rule + "', expected <groupId>:<artifactId>[:<extension>[:<classifier>]]:<version>");
+		}
+		String groupId = parts[0];
+		String artifactId = parts[1];
+		if ((groupId.indexOf('*') >= 0 && !"*".equals(groupId) && (!groupId.endsWith(".*") || groupId.indexOf('*') != groupId.length() - 1))
+				|| artifactId.indexOf('*') != artifactId.lastIndexOf('*') || (artifactId.indexOf('*') >= 0 && !artifactId.endsWith("*"))) {
+			throw new MojoExecutionException("invalid wildcard in rule '" + rule + "', expected '*' as the last groupId segment or at the end of the artifactId");
+		}
+		try {
+			VERSION_SCHEME.parseVersionConstraint(parts[parts.length - 1]);
+		} catch (InvalidVersionSpecificationException e) {
+			throw new MojoExecutionException("invalid version range in rule '" + rule + "'", e);
+		}
+	}
+
+	private void compile() {
+		for (String rule : exactRules) {
+			int first = rule.indexOf(':');
+			int second = first < 0 ? -1 : rule.indexOf(':', first + 1);
+			String key = second < 0 ? rule : rule.substring(0, second);
+			List<String> rules = exactRulesByKey.get(key);
+			if (rules == null) {
+				rules = new ArrayList<String>(1);
+				exactRulesByKey.put(key, rules);
+			}
+			rules.add(rule);
+		}
+		for (String rule : wildcardRules) {
+			int first = rule.indexOf(':');
+			int second = rule.indexOf(':', first + 1);
+			String groupPattern = rule.substring(0, first);
+			String artifactPattern = rule.substring(first + 1, second);
+			String rest = rule.substring(second);
+
+			Node node = root;
+			boolean subgroups = groupPattern.endsWith("*");
+			String group = subgroups ? groupPattern.substring(0, Math.max(0, groupPattern.length() - 2)) : groupPattern;
+			if (group.length() > 0) {
+				for (String segment : group.split("\\.")) {
+					Node child = node.children.get(segment);
+					if (child == null) {
+						child = new Node();
+						node.children.put(segment, child);
+					}
+					node = child;
+				}
+			}
+			if (subgroups) {
+				if (node.subgroups == null) {
+					node.subgroups = new Patterns();
+				}
+				node.subgroups.add(artifactPattern, rest);
+			} else {
+				if (node.group == null) {
+					node.group = new Patterns();
+				}
+				node.group.add(artifactPattern, rest);
+			}
+		}
+	}
+
+	/**
+	 * @return the rules naming one artifact each.
+	 */
+	public List<String> getExactRules() {
+		return Collections.unmodifiableList(exactRules);
+	}
+
+	/**
+	 * @return the <code>groupId:artifactId</code> keys of the exact rules.
+	 */
+	public Set<String> getExactKeys() {
+		return Collections.unmodifiableSet(exactRulesByKey.keySet());
+	}
+
+	/**
+	 * @return the exact rules for the given <code>groupId:artifactId</code> key, empty if there are none.
+	 */
+	public List<String> getExactRules(String versionlessKey) {
+		List<String> rules = exactRulesByKey.get(versionlessKey);
+		return rules == null ? Collections.<String> emptyList() : Collections.unmodifiableList(rules);
+	}
+
+	public int getWildcardCount() {
+		return wildcardRules.size();
+	}
+
+	/**
+	 * @return the most specific wildcard rule matching the artifact, with the artifact filled in, or <code>null</code>.
+	 */
+	public String match(String groupId, String artifactId) {
+		String rest = null;
+		Node node = root;
+		int start = 0;
+		while (node != null) {
+			if (start > groupId.length()) {
+				// every segment consumed
+				if (node.group != null) {
+					String groupRest = node.group.match(artifactId);
+					if (groupRest != null) {
+						rest = groupRest;
+					}
+				}
+				break;
+			}
+			if (node.subgroups != null) {
+				String subgroupRest = node.subgroups.match(artifactId);
+				if (subgroupRest != null) {
+					rest = subgroupRest;
+				}
+			}
+			int end = groupId.indexOf('.', start);
+			if (end < 0) {
+				end = groupId.length();
+			}
+			node = node.children.get(groupId.substring(start, end));
+			start = end + 1;
+		}
+		return rest == null ? null : groupId + ':' + artifactId + rest;
+	}
+
+	/**
+	 * Reads a catalog written by {@link #write(File, File)}.
+	 *
+	 * @return the catalog, or <code>null</code> if the file is missing, invalid or the rules file changed since.
+	 */
+	public static RuleCatalog read(File compiled, File source) throws IOException {
+		if (!compiled.isFile()) {
+			return null;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(compiled)));
+			if (in.readInt() != MAGIC || !in.readUTF().equals(source.getAbsolutePath()) || in.readLong() != source.length() || in.readLong() != source.lastModified()) {
+				return null;
+			}
+			List<String> exact = readStrings(in);
+			List<String> wildcard = readStrings(in);
+			return new RuleCatalog(exact, wildcard);
+		} finally {
+			IOUtil.close(in);
+		}
+	}
+
+	private static List<String> readStrings(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		List<String> strings = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			strings.add(in.readUTF());
+		}
+		return strings;
+	}
+
+	/**
+	 * Writes the catalog, stamped with the path, size and modification time of the rules file it was compiled from.
+	 */
+	public void write(File compiled, File source) throws IOException {
+		File dir = compiled.getAbsoluteFile().getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("unable to create directory " + dir);
+		}
+		File tmp = File.createTempFile(compiled.getName(), ".tmp", dir);
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			out.writeInt(MAGIC);
+			out.writeUTF(source.getAbsolutePath());
+			out.writeLong(source.length());
+			out.writeLong(source.lastModified());
+			writeStrings(out, exactRules);
+			writeStrings(out, wildcardRules);
+			out.close();
+			out = null;
+			try {
+				Files.move(tmp.toPath(), compiled.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				Files.move(tmp.toPath(), compiled.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			IOUtil.close(out);
+			tmp.delete();
+		}
+	}
+
+	private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+		out.writeInt(strings.size());
+		for (String s : strings) {
+			out.writeUTF(s);
+		}
+	}
+}
@@ -0,0 +1,366 @@
+package org.kloeckner.maven.plugin.util;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.codehaus.plexus.util.IOUtil;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.repository.RemoteRepository;
+
+/**
+ * Persistent cache of resolved version ranges.
+ * <p>
+ * Entries are keyed by the artifact coordinates including the range and by
+ * the remote repositories the range was resolved against. The cache is kept
+ * in a small binary file which is read once and written back only if it was
+ * changed.
+ * <p>
+ * Ranges that could not be resolved are kept as failures, so they are not
+ * tried again before their backoff is over. A successful resolution removes
+ * the failure.
+ * <p>
+ * Saving drops what is no longer of use, so the file doesn't grow without
+ * bound: entries older than {@link #RETENTION_TTLS} times the TTL, which are
+ * kept past the TTL only to be revalidated against the local repository
+ * metadata, and failures not tried again within the maximum backoff after
+ * their backoff was over. A failure tried again in time keeps its count, so
+ * its backoff still doubles.
+ */
+public class VersionRangeCache {
+
+	private static final int MAGIC = 0x56524332; // "VRC2"
+
+	/**
+	 * Number of TTLs an entry is kept: a week at the default TTL of an hour.
+	 */
+	public static final int RETENTION_TTLS = 168;
+
+	private final File file;
+
+	private final long ttlMillis;
+
+	private final long backoffMillis;
+
+	private final long maxBackoffMillis;
+
+	private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	private final Map<String, Failure> failures = new ConcurrentHashMap<String, Failure>();
+
+	private volatile boolean dirty;
+
+	/**
+	 * A cached resolution: the versions found, in ascending order, and the
+	 * time the underlying repository metadata was fetched.
+	 */
+	public static class Entry {
+
+		private final long timestamp;
+
+		private final List<String> versions;
+
+		public Entry(long timestamp, List<String> versions) {
+			this.timestamp = timestamp;
+			this.versions = Collections.unmodifiableList(new ArrayList<String>(versions));
+		}
+
+		public long getTimestamp() {
+			return timestamp;
+		}
+
+		public List<String> getVersions() {
+			return versions;
+		}
+
+		public String getHighestVersion() {
+			return versions.isEmpty() ? null : versions.get(versions.size() - 1);
+		}
+	}
+
+	/**
+	 * A range that could not be resolved: the number of failures in a row,
+	 * the time of the last one and its message.
+	 */
+	public static class Failure {
+
+		private final int count;
+
+		private final long timestamp;
+
+		private final String message;
+
+		Failure(int count, long timestamp, String message) {
+			this.count = count;
+			this.timestamp = timestamp;
+			this.message = message == null ? "" : message;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+
+		/**
+		 * @return the time the range may be tried again: the backoff doubles
+		 *         with every failure in a row, up to the maximum.
+		 */
+		public long getRetryAt(long backoffMillis, long maxBackoffMillis) {
+			long backoff = backoffMillis << Math.min(count - 1, 30);
+			return timestamp + (backoff < 0 || backoff > maxBackoffMillis ? maxBackoffMillis : backoff);
+		}
+	}
+
+	/**
+	 * @param backoffMillis
+	 *            the backoff after the first failure, see {@link Failure#getRetryAt(long, long)}
+	 * @param maxBackoffMillis
+	 *            the maximum backoff
+	 */
+	public VersionRangeCache(File file, long ttlMillis, long backoffMillis, long maxBackoffMillis) {
+		this.file = file;
+		this.ttlMillis = ttlMillis;
+		this.backoffMillis = backoffMillis;
+		this.maxBackoffMillis = maxBackoffMillis;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public static String key(Artifact artifact, List<RemoteRepository> repositories) {
+		return artifact.toString() + repositoriesKey(repositories);
+	}
+
+	/**
+	 * @return a key identifying the given repositories by their ids and URLs, independent of their order.
+	 */
+	public static String repositoriesKey(List<RemoteRepository> repositories) {
+		StringBuilder key = new StringBuilder();
+		List<RemoteRepository> sorted = new ArrayList<RemoteRepository>();
+		if (repositories != null) {
+			sorted.addAll(repositories);
+		}
+		Collections.sort(sorted, new Comparator<RemoteRepository>() {
+			public int compare(RemoteRepository r1, RemoteRepository r2) {
+				return r1.getId().compareTo(r2.getId());
+			}
+		});
+		for (RemoteRepository repository : sorted) {
+			key.append('|').append(repository.getId()).append('=').append(repository.getUrl());
+		}
+		return key.toString();
+	}
+
+	/**
+	 * @return the entry for the given key if it is younger than the TTL, otherwise <code>null</code>.
+	 */
+	public Entry getFresh(String key) {
+		Entry entry = entries.get(key);
+		if (entry != null && isFresh(entry.getTimestamp())) {
+			return entry;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the entry for the given key regardless of its age, or <code>null</code>.
+	 */
+	public Entry get(String key) {
+		return entries.get(key);
+	}
+
+	public boolean isFresh(long timestamp) {
+		return System.currentTimeMillis() - timestamp < ttlMillis;
+	}
+
+	public void put(String key, Entry entry) {
+		entries.put(key, entry);
+		failures.remove(key);
+		dirty = true;
+	}
+
+	/**
+	 * @return the failure for the given key, or <code>null</code> if the last resolution succeeded.
+	 */
+	public Failure getFailure(String key) {
+		return failures.get(key);
+	}
+
+	/**
+	 * Counts another failure in a row for the given key.
+	 */
+	public synchronized void putFailure(String key, String message) {
+		Failure previous = failures.get(key);
+		String shortened = message != null && message.length() > 1000 ? message.substring(0, 1000) : message;
+		failures.put(key, new Failure(previous == null ? 1 : previous.count + 1, System.currentTimeMillis(), shortened));
+		dirty = true;
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Reads the cache file. A missing, foreign or corrupt file results in an empty cache.
+	 */
+	public void load() throws IOException {
+		entries.clear();
+		failures.clear();
+		if (!file.isFile()) {
+			return;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (in.readInt() != MAGIC) {
+				return;
+			}
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String key = in.readUTF();
+				long timestamp = in.readLong();
+				int versionCount = in.readInt();
+				List<String> versions = new ArrayList<String>(versionCount);
+				for (int j = 0; j < versionCount; j++) {
+					versions.add(in.readUTF());
+				}
+				entries.put(key, new Entry(timestamp, versions));
+			}
+			int failureCount = in.readInt();
+			for (int i = 0; i < failureCount; i++) {
+				failures.put(in.readUTF(), new Failure(in.readInt(), in.readLong(), in.readUTF()));
+			}
+		} catch (IOException e) {
+			// truncated or otherwise broken: start over
+			entries.clear();
+			failures.clear();
+		} finally {
+			IOUtil.close(in);
+		}
+		dirty = false;
+	}
+
+	/**
+	 * Drops the entries past the retention period and the failures whose backoff is long over.
+	 */
+	private void prune() {
+		long now = System.currentTimeMillis();
+		long retentionMillis = ttlMillis * RETENTION_TTLS;
+		if (retentionMillis / RETENTION_TTLS != ttlMillis) {
+			retentionMillis = Long.MAX_VALUE;
+		}
+		for (Map.Entry<String, Entry> e : entries.entrySet()) {
+			if (now - e.getValue().getTimestamp() >= retentionMillis && entries.remove(e.getKey(), e.getValue())) {
+				dirty = true;
+			}
+		}
+		for (Map.Entry<String, Failure> e : failures.entrySet()) {
+			if (now - e.getValue().getRetryAt(backoffMillis, maxBackoffMillis) >= maxBackoffMillis
+					&& failures.remove(e.getKey(), e.getValue())) {
+				dirty = true;
+			}
+		}
+	}
+
+	/**
+	 * Writes the cache file if it was changed since it was loaded or pruning dropped anything from it. The file is
+	 * written to a temporary file first and then moved over the old one, so concurrent builds never see a partially
+	 * written cache.
+	 */
+	public synchronized void save() throws IOException {
+		prune();
+		if (!dirty) {
+			return;
+		}
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("unable to create directory " + dir);
+		}
+		File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			List<Map.Entry<String, Entry>> snapshot = new ArrayList<Map.Entry<String, Entry>>(entries.entrySet());
+			out.writeInt(MAGIC);
+			out.writeInt(snapshot.size());
+			for (Map.Entry<String, Entry> e : snapshot) {
+				out.writeUTF(e.getKey());
+				out.writeLong(e.getValue().getTimestamp());
+				out.writeInt(e.getValue().getVersions().size());
+				for (String version : e.getValue().getVersions()) {
+					out.writeUTF(version);
+				}
+			}
+			List<Map.Entry<String, Failure>> failureSnapshot = new ArrayList<Map.Entry<String, Failure>>(failures.entrySet());
+			out.writeInt(failureSnapshot.size());
+			for (Map.Entry<String, Failure> e : failureSnapshot) {
+				out.writeUTF(e.getKey());
+				out.writeInt(e.getValue().count);
+				out.writeLong(e.getValue().timestamp);
+				out.writeUTF(e.getValue().message);
+			}
+			out.close();
+			out = null;
+			try {
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			dirty = false;
+		} finally {
+			IOUtil.close(out);
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * Newest modification time of the locally cached repository metadata of the given artifact, <code>0</code> if
+	 * there is none. Aether rewrites these files whenever it fetches the metadata from a remote repository, so this
+	 * is a cheap way to find out whether another build refreshed them in the meantime.
+	 */
+	public static long getLocalMetadataTimestamp(File localRepository, Artifact artifact) {
+		File dir = new File(localRepository, artifact.getGroupId().replace('.', File.separatorChar) + File.separator
+				+ artifact.getArtifactId());
+		File[] files = dir.listFiles();
+		long newest = 0;
+		if (files != null) {
+			for (File f : files) {
+				if (f.getName().startsWith("maven-metadata") && f.getName().endsWith(".xml")) {
+					newest = Math.max(newest, f.lastModified());
+				}
+			}
+		}
+		return newest;
+	}
+}
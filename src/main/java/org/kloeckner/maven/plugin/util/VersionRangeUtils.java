@@ -24,12 +24,10 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.Reader;
-import java.io.Writer;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -46,17 +44,6 @@ import org.codehaus.plexus.interpolation.PrefixedObjectValueSource;
 import org.codehaus.plexus.interpolation.StringSearchInterpolator;
 import org.codehaus.plexus.util.IOUtil;
 import org.codehaus.plexus.util.ReaderFactory;
-import org.codehaus.plexus.util.WriterFactory;
-import org.jdom.CDATA;
-import org.jdom.Comment;
-import org.jdom.Document;
-import org.jdom.Element;
-import org.jdom.Namespace;
-import org.jdom.Text;
-import org.jdom.filter.ContentFilter;
-import org.jdom.filter.ElementFilter;
-import org.jdom.output.Format;
-import org.jdom.output.XMLOutputter;
 
 /**
  */
@@ -66,8 +53,6 @@ public class VersionRangeUtils {
 
 	//	private static final String FS = File.separator;
 
-	private static String ls = VersionRangeUtils.LS;
-
 	/**
 	 * The line separator to use.
 	 */
@@ -104,11 +89,11 @@ public class VersionRangeUtils {
 		return value;
 	}
 
-	public static String rewriteParent(MavenProject project, Element rootElement, Namespace namespace, Map<String, String> mappedVersions, Map<String, String> originalVersions) throws MojoExecutionException {
+	public static String rewriteParent(MavenProject project, PomElement rootElement, Map<String, String> mappedVersions, Map<String, String> originalVersions) throws MojoExecutionException {
 		String parentVersion = null;
 		if (project.hasParent()) {
-			Element parentElement = rootElement.getChild("parent", namespace);
-			Element versionElement = parentElement.getChild("version", namespace);
+			PomElement parentElement = rootElement.getChild("parent");
+			PomElement versionElement = parentElement.getChild("version");
 			MavenProject parent = project.getParent();
 			String key = ArtifactUtils.versionlessKey(parent.getGroupId(), parent.getArtifactId());
 			parentVersion = mappedVersions.get(key);
@@ -127,40 +112,12 @@ public class VersionRangeUtils {
 		return parentVersion;
 	}
 
-	public static void rewriteValue(Element element, String value) {
-		Text text = null;
-		if (element.getContent() != null) {
-			for (Iterator<?> it = element.getContent().iterator(); it.hasNext();) {
-				Object content = it.next();
-				if ((content instanceof Text) && ((Text) content).getTextTrim().length() > 0) {
-					text = (Text) content;
-					while (it.hasNext()) {
-						content = it.next();
-						if (content instanceof Text) {
-							text.append((Text) content);
-							it.remove();
-						} else {
-							break;
-						}
-					}
-					break;
-				}
-			}
-		}
-		if (text == null) {
-			element.addContent(value);
-		} else {
-			String chars = text.getText();
-			String trimmed = text.getTextTrim();
-			int idx = chars.indexOf(trimmed);
-			String leadingWhitespace = chars.substring(0, idx);
-			String trailingWhitespace = chars.substring(idx + trimmed.length());
-			text.setText(leadingWhitespace + value + trailingWhitespace);
-		}
+	public static void rewriteValue(PomElement element, String value) {
+		element.getDocument().rewriteValue(element, value);
 	}
 
-	public static void rewriteVersion(Element rootElement, Namespace namespace, Map<String, String> mappedVersions, String projectId, MavenProject project, String parentVersion) throws MojoExecutionException {
-		Element versionElement = rootElement.getChild("version", namespace);
+	public static void rewriteVersion(PomElement rootElement, Map<String, String> mappedVersions, String projectId, MavenProject project, String parentVersion) throws MojoExecutionException {
+		PomElement versionElement = rootElement.getChild("version");
 		String version = mappedVersions.get(projectId);
 		if (version == null) {
 			throw new MojoExecutionException("Version for '" + project.getName() + "' was not mapped");
@@ -169,13 +126,9 @@ public class VersionRangeUtils {
 		if (versionElement == null) {
 			if (!version.equals(parentVersion)) {
 				// we will add this after artifactId, since it was missing but different from the inherited version
-				Element artifactIdElement = rootElement.getChild("artifactId", namespace);
-				int index = rootElement.indexOf(artifactIdElement);
-
-				versionElement = new Element("version", namespace);
-				versionElement.setText(version);
-				rootElement.addContent(index + 1, new Text("\n  "));
-				rootElement.addContent(index + 2, versionElement);
+				PomElement artifactIdElement = rootElement.getChild("artifactId");
+				PomRewriter document = rootElement.getDocument();
+				document.insertAfter(artifactIdElement, LS + document.getIndentation(artifactIdElement) + "<version>" + version + "</version>");
 			}
 		} else {
 			rewriteValue(versionElement, version);
@@ -196,15 +149,15 @@ public class VersionRangeUtils {
 		return pom;
 	}
 
-	public static List<Element> getChildren(Element root, String... names) {
-		Element parent = root;
+	public static List<PomElement> getChildren(PomElement root, String... names) {
+		PomElement parent = root;
 		for (int i = 0; i < names.length - 1 && parent != null; i++) {
-			parent = parent.getChild(names[i], parent.getNamespace());
+			parent = parent.getChild(names[i]);
 		}
 		if (parent == null) {
 			return Collections.emptyList();
 		}
-		return parent.getChildren(names[names.length - 1], parent.getNamespace());
+		return parent.getChildren(names[names.length - 1]);
 	}
 
 	/**
@@ -247,56 +200,24 @@ public class VersionRangeUtils {
 		return norm;
 	}
 
-	public static void writePom(File pomFile, Document document, String modelVersion, String intro, String outtro) throws MojoExecutionException {
-		Element rootElement = document.getRootElement();
-
-		Namespace pomNamespace = Namespace.getNamespace("", "http://maven.apache.org/POM/" + modelVersion);
-		rootElement.setNamespace(pomNamespace);
-		Namespace xsiNamespace = Namespace.getNamespace("xsi", "http://www.w3.org/2001/XMLSchema-instance");
-		rootElement.addNamespaceDeclaration(xsiNamespace);
-
-		if (rootElement.getAttribute("schemaLocation", xsiNamespace) == null) {
-			rootElement.setAttribute("schemaLocation", "http://maven.apache.org/POM/" + modelVersion + " http://maven.apache.org/maven-v" + modelVersion.replace('.', '_') + ".xsd", xsiNamespace);
-		}
-
-		// the empty namespace is considered equal to the POM namespace, so match them up to avoid extra xmlns=""
-		ElementFilter elementFilter = new ElementFilter(Namespace.getNamespace(""));
-		for (Iterator<?> i = rootElement.getDescendants(elementFilter); i.hasNext();) {
-			Element e = (Element) i.next();
-			e.setNamespace(pomNamespace);
-		}
+	/**
+	 * Writes the rewritten POM in the encoding it was read with, replacing the original file atomically. Everything
+	 * but the rewritten values is copied verbatim from the original file.
+	 */
+	public static void writePom(File pomFile, PomRewriter pom) throws MojoExecutionException {
+		writePom(pomFile, pom, false);
+	}
 
-		Writer writer = null;
+	/**
+	 * Like {@link #writePom(File, PomRewriter)}.
+	 * 
+	 * @param sync whether to force the POM to disk before it replaces the original
+	 */
+	public static void writePom(File pomFile, PomRewriter pom, boolean sync) throws MojoExecutionException {
 		try {
-			writer = WriterFactory.newXmlWriter(pomFile);
-
-			if (intro != null) {
-				writer.write(intro);
-			}
-
-			Format format = Format.getRawFormat();
-			format.setLineSeparator(ls);
-			XMLOutputter out = new XMLOutputter(format);
-			out.output(document.getRootElement(), writer);
-
-			if (outtro != null) {
-				writer.write(outtro);
-			}
+			pom.write(pomFile, sync);
 		} catch (IOException e) {
 			throw new MojoExecutionException("Error writing POM: " + e.getMessage(), e);
-		} finally {
-			IOUtil.close(writer);
-		}
-	}
-
-	public static void normaliseLineEndings(Document document) {
-		for (Iterator<?> i = document.getDescendants(new ContentFilter(ContentFilter.COMMENT)); i.hasNext();) {
-			Comment c = (Comment) i.next();
-			c.setText(VersionRangeUtils.normalizeLineEndings(c.getText(), ls));
-		}
-		for (Iterator<?> i = document.getDescendants(new ContentFilter(ContentFilter.CDATA)); i.hasNext();) {
-			CDATA c = (CDATA) i.next();
-			c.setText(VersionRangeUtils.normalizeLineEndings(c.getText(), ls));
 		}
 	}
 
@@ -0,0 +1,57 @@
+package org.kloeckner.maven.plugin;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Records the given event types of the plugin, without threshold.
+ */
+public class FlightRecording {
+
+	private final Recording recording = new Recording();
+
+	/**
+	 * @param events the names of the event types without the prefix, e.g. <code>Fetch</code>
+	 */
+	public FlightRecording(String... events) {
+		for (String event : events) {
+			recording.enable("org.kloeckner.versionrange." + event).withoutThreshold();
+		}
+		recording.start();
+	}
+
+	/**
+	 * @return the events recorded so far, after which nothing is recorded anymore
+	 */
+	public List<RecordedEvent> stop() throws IOException {
+		recording.stop();
+		Path file = Files.createTempFile("version-range", ".jfr");
+		try {
+			recording.dump(file);
+			return RecordingFile.readAllEvents(file);
+		} finally {
+			recording.close();
+			Files.delete(file);
+		}
+	}
+}
@@ -0,0 +1,623 @@
+package org.kloeckner.maven.plugin;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import jdk.jfr.consumer.RecordedEvent;
+
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.IOUtil;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.kloeckner.maven.plugin.util.LockFile;
+
+/**
+ * Runs the goals in process on reactors generated by {@link SyntheticReactor}, resolving against a
+ * {@link StubRepositorySystem} with the versions <code>1.0.0</code> to <code>1.0.4</code>.
+ */
+public class ReactorUpdateTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final Pattern PROPERTY = Pattern.compile("\\$\\{([^}]+)\\}");
+
+	private static final int VERSIONS = 5;
+
+	private static final String LATEST = "1.0." + (VERSIONS - 1);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private StubRepositorySystem repoSystem;
+
+	private File rulesDir;
+
+	private File reactorDir;
+
+	@Before
+	public void createRepositorySystem() throws IOException {
+		repoSystem = new StubRepositorySystem(VERSIONS);
+		rulesDir = folder.newFolder("rules");
+		reactorDir = new File(folder.getRoot(), "reactor");
+	}
+
+	/**
+	 * Writes the reactor and the rules.
+	 *
+	 * @return the POM files by path relative to the reactor, with their original content
+	 */
+	Map<String, String> generate(SyntheticReactor reactor) throws IOException {
+		reactor.writeRules(rulesDir);
+		reactor.writeReactor(reactorDir, folder.getRoot(), rulesDir, "test");
+		return readPoms();
+	}
+
+	Map<String, String> readPoms() throws IOException {
+		Map<String, String> poms = new LinkedHashMap<String, String>();
+		poms.put("pom.xml", read(new File(reactorDir, "pom.xml")));
+		for (int m = 0; new File(reactorDir, "module-" + m).isDirectory(); m++) {
+			String path = "module-" + m + "/pom.xml";
+			poms.put(path, read(new File(reactorDir, path)));
+		}
+		return poms;
+	}
+
+	private static String read(File file) throws IOException {
+		return new String(Files.readAllBytes(file.toPath()), UTF8);
+	}
+
+	/**
+	 * @return the POMs as they should be after the update: every version of a generated dependency is the latest.
+	 */
+	static Map<String, String> expected(Map<String, String> original) {
+		Map<String, String> expected = new LinkedHashMap<String, String>();
+		for (Map.Entry<String, String> e : original.entrySet()) {
+			expected.put(e.getKey(), e.getValue().replace(">1.0.0<", ">" + LATEST + "<"));
+		}
+		return expected;
+	}
+
+	/**
+	 * Reads the projects of the reactor like Maven would: the parent first, the modules inheriting from it, with
+	 * their dependency versions interpolated.
+	 */
+	List<MavenProject> readProjects() throws Exception {
+		List<MavenProject> projects = new ArrayList<MavenProject>();
+		MavenProject parent = readProject(new File(reactorDir, "pom.xml"), null);
+		projects.add(parent);
+		for (int m = 0; new File(reactorDir, "module-" + m).isDirectory(); m++) {
+			projects.add(readProject(new File(reactorDir, "module-" + m + "/pom.xml"), parent));
+		}
+		return projects;
+	}
+
+	private static MavenProject readProject(File pomFile, MavenProject parent) throws Exception {
+		Model model;
+		InputStream in = new FileInputStream(pomFile);
+		try {
+			model = new MavenXpp3Reader().read(in);
+		} finally {
+			IOUtil.close(in);
+		}
+		Model originalModel = model.clone();
+		Properties properties = new Properties();
+		if (parent != null) {
+			model.setGroupId(parent.getGroupId());
+			model.setVersion(parent.getVersion());
+			properties.putAll(parent.getProperties());
+		}
+		properties.putAll(model.getProperties());
+		model.setProperties(properties);
+		for (Dependency dependency : model.getDependencies()) {
+			dependency.setArtifactId(interpolate(dependency.getArtifactId(), properties));
+			dependency.setVersion(interpolate(dependency.getVersion(), properties));
+		}
+		Build build = new Build();
+		build.setDirectory(new File(pomFile.getParentFile(), "target").getPath());
+		model.setBuild(build);
+		MavenProject project = new MavenProject(model);
+		project.setOriginalModel(originalModel);
+		project.setFile(pomFile);
+		if (parent != null) {
+			project.setParent(parent);
+			project.setParentArtifact(new DefaultArtifact(parent.getGroupId(), parent.getArtifactId(), parent.getVersion(), null, "pom", null,
+					new DefaultArtifactHandler("pom")));
+		}
+		return project;
+	}
+
+	private static String interpolate(String value, Properties properties) {
+		Matcher m = PROPERTY.matcher(value);
+		return m.matches() && properties.containsKey(m.group(1)) ? properties.getProperty(m.group(1)) : value;
+	}
+
+	/**
+	 * @return a new session, like a new Maven build
+	 */
+	static RepositorySystemSession newSession() {
+		return new DefaultRepositorySystemSession();
+	}
+
+	<T extends VersionRange> T newMojo(T mojo, MavenProject project, List<MavenProject> reactorProjects, RepositorySystemSession session)
+			throws ReflectiveOperationException {
+		mojo.setLog(new NullLog());
+		setField(mojo, "mavenProject", project);
+		setField(mojo, "reactorProjects", reactorProjects);
+		setField(mojo, "repoSystem", repoSystem);
+		setField(mojo, "repoSession", session);
+		setField(mojo, "remoteRepos", Collections.singletonList(new RemoteRepository.Builder("central", "default", "http://repo.example.org/").build()));
+		setField(mojo, "dependencyVersionRangePath", rulesDir.getPath());
+		setField(mojo, "fingerprintFile", new File(project.getBuild().getDirectory(), "version-range-maven-plugin.fingerprint"));
+		return mojo;
+	}
+
+	/**
+	 * Sets a field Maven would inject.
+	 */
+	static void setField(Object target, String name, Object value) throws ReflectiveOperationException {
+		Class<?> type = target.getClass();
+		while (true) {
+			try {
+				Field field = type.getDeclaredField(name);
+				field.setAccessible(true);
+				field.set(target, value);
+				return;
+			} catch (NoSuchFieldException e) {
+				type = type.getSuperclass();
+				if (type == null) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Replaces text in a POM of the reactor.
+	 */
+	void edit(String path, String text, String replacement) throws IOException {
+		File file = new File(reactorDir, path);
+		String content = read(file);
+		assertTrue(path + " contains " + text, content.contains(text));
+		Files.write(file.toPath(), content.replace(text, replacement).getBytes(UTF8));
+	}
+
+	/**
+	 * Moves the properties of the first module to the parent, which uses the first of them for a dependency of its own.
+	 */
+	void inheritProperties() throws IOException {
+		String module = read(new File(reactorDir, "module-0/pom.xml"));
+		String properties = module.substring(module.indexOf("\t<properties>"), module.indexOf("\t<dependencies>"));
+		edit("module-0/pom.xml", properties, "");
+		edit("pom.xml", "\t<build>", properties + "\t<dependencies>\n\t\t<dependency>\n\t\t\t<groupId>" + SyntheticReactor.GROUP_ID
+				+ ".g0</groupId>\n\t\t\t<artifactId>lib-0</artifactId>\n\t\t\t<version>${lib-0.version}</version>\n\t\t</dependency>\n\t</dependencies>\n\t<build>");
+	}
+
+	/**
+	 * Runs <code>use-latest-versions</code> on every project, one after the other.
+	 *
+	 * @return the reports of the executions
+	 */
+	List<ExecutionReportView> runSerially(RepositorySystemSession session) throws Exception {
+		List<MavenProject> projects = readProjects();
+		List<ExecutionReportView> reports = new ArrayList<ExecutionReportView>();
+		for (MavenProject project : projects) {
+			VersionRange mojo = newMojo(new VersionRange(), project, projects, session);
+			mojo.execute();
+			reports.add(new ExecutionReportView(mojo));
+		}
+		return reports;
+	}
+
+	/**
+	 * Runs <code>use-latest-versions</code> on the parent, then on all modules at once, like a parallel build.
+	 *
+	 * @return the reports of the executions
+	 */
+	List<ExecutionReportView> runInParallel(final RepositorySystemSession session, int threads) throws Exception {
+		final List<MavenProject> projects = readProjects();
+		List<ExecutionReportView> reports = new ArrayList<ExecutionReportView>();
+		VersionRange parentMojo = newMojo(new VersionRange(), projects.get(0), projects, session);
+		parentMojo.execute();
+		reports.add(new ExecutionReportView(parentMojo));
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			final CountDownLatch start = new CountDownLatch(1);
+			List<Future<ExecutionReportView>> futures = new ArrayList<Future<ExecutionReportView>>();
+			for (final MavenProject project : projects.subList(1, projects.size())) {
+				futures.add(executor.submit(new Callable<ExecutionReportView>() {
+					public ExecutionReportView call() throws Exception {
+						VersionRange mojo = newMojo(new VersionRange(), project, projects, session);
+						start.await();
+						mojo.execute();
+						return new ExecutionReportView(mojo);
+					}
+				}));
+			}
+			start.countDown();
+			for (Future<ExecutionReportView> future : futures) {
+				reports.add(future.get());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return reports;
+	}
+
+	/**
+	 * The counts of an execution report.
+	 */
+	static final class ExecutionReportView {
+
+		final int rewritten;
+
+		final boolean skipped;
+
+		ExecutionReportView(VersionRange mojo) {
+			this.rewritten = mojo.report.getRewrittenVersions() + mojo.report.getRewrittenProperties();
+			this.skipped = mojo.report.isSkipped();
+		}
+	}
+
+	static int sumRewritten(List<ExecutionReportView> reports) {
+		int sum = 0;
+		for (ExecutionReportView report : reports) {
+			sum += report.rewritten;
+		}
+		return sum;
+	}
+
+	@Test
+	public void updatesEveryDependencyOfTheReactor() throws Exception {
+		SyntheticReactor reactor = new SyntheticReactor(4, 30, 10, 2);
+		Map<String, String> original = generate(reactor);
+
+		List<ExecutionReportView> reports = runSerially(newSession());
+
+		assertEquals(expected(original), readPoms());
+		assertEquals(reactor.getExpectedRewrites(), sumRewritten(reports));
+		// 40 dependencies on 30 artifacts, each resolved once
+		assertEquals(30, repoSystem.getRangeRequests());
+		// the parent declares no artifact with a rule
+		assertTrue(reports.get(0).skipped);
+	}
+
+	@Test
+	public void resolvesOnlyTheRulesOfDeclaredArtifacts() throws Exception {
+		SyntheticReactor reactor = new SyntheticReactor(3, 200, 10, 2);
+		Map<String, String> original = generate(reactor);
+
+		runSerially(newSession());
+
+		assertEquals(expected(original), readPoms());
+		assertEquals(30, repoSystem.getRangeRequests());
+	}
+
+	@Test
+	public void secondRunChangesNothing() throws Exception {
+		SyntheticReactor reactor = new SyntheticReactor(4, 30, 10, 2);
+		Map<String, String> original = generate(reactor);
+		runSerially(newSession());
+
+		List<ExecutionReportView> reports = runSerially(newSession());
+
+		assertEquals(expected(original), readPoms());
+		assertEquals(0, sumRewritten(reports));
+		for (ExecutionReportView report : reports) {
+			assertTrue(report.skipped);
+		}
+	}
+
+	@Test
+	public void changedParentIsNotSkipped() throws Exception {
+		SyntheticReactor reactor = new SyntheticReactor(2, 20, 10, 2);
+		generate(reactor);
+		runSerially(newSession());
+
+		File parent = new File(reactorDir, "pom.xml");
+		Files.write(parent.toPath(), read(parent).replace("<packaging>", "<!-- changed -->\n\t<packaging>").getBytes(UTF8));
+		List<ExecutionReportView> reports = runSerially(newSession());
+
+		for (ExecutionReportView report : reports.subList(1, reports.size())) {
+			assertFalse(report.skipped);
+		}
+	}
+
+	@Test
+	public void aggregateUpdatesTheSamePoms() throws Exception {
+		SyntheticReactor reactor = new SyntheticReactor(4, 30, 10, 2);
+		Map<String, String> original = generate(reactor);
+
+		List<MavenProject> projects = readProjects();
+		AggregateVersionRange mojo = newMojo(new AggregateVersionRange(), projects.get(0), projects, newSession());
+		mojo.execute();
+
+		assertEquals(expected(original), readPoms());
+		assertEquals(reactor.getExpectedRewrites(), mojo.report.getRewrittenVersions() + mojo.report.getRewrittenProperties());
+		assertEquals(30, repoSystem.getRangeRequests());
+	}
+
+	@Test
+	public void rulesAreSharedWithinABuildOnly() throws Exception {
+		SyntheticReactor reactor = new SyntheticReactor(2, 20, 10, 2);
+		generate(reactor);
+		runSerially(newSession());
+		assertEquals(20, repoSystem.getRangeRequests());
+
+		Set<String> before = new HashSet<String>(readPoms().values());
+		runSerially(newSession());
+		// a new build resolves again, but finds nothing to change
+		assertEquals(40, repoSystem.getRangeRequests());
+		assertEquals(before, new HashSet<String>(readPoms().values()));
+	}
+
+	@Test
+	public void parallelModulesWriteTheSamePomsAsASerialRun() throws Exception {
+		SyntheticReactor reactor = new SyntheticReactor(16, 40, 10, 2);
+		generate(reactor);
+		runSerially(newSession());
+		Map<String, String> serial = readPoms();
+		int serialRequests = repoSystem.getRangeRequests();
+
+		reactorDir = new File(folder.getRoot(), "parallel");
+		repoSystem = new StubRepositorySystem(VERSIONS);
+		// keep the resolutions of the same artifacts overlapping
+		repoSystem.setDelay("central", 5);
+		generate(reactor);
+		List<ExecutionReportView> reports = runInParallel(newSession(), 8);
+
+		assertEquals(serial, readPoms());
+		assertEquals(reactor.getExpectedRewrites(), sumRewritten(reports));
+		// every artifact is resolved once, however many modules wait for it
+		assertEquals(serialRequests, repoSystem.getRangeRequests());
+		assertEquals(40, repoSystem.getRangeRequests());
+	}
+
+	@Test
+	public void aggregateWithRewriteThreadsWritesTheSamePomsAsASerialRun() throws Exception {
+		SyntheticReactor reactor = new SyntheticReactor(16, 40, 10, 2);
+		generate(reactor);
+		runSerially(newSession());
+		Map<String, String> serial = readPoms();
+
+		reactorDir = new File(folder.getRoot(), "aggregate");
+		repoSystem = new StubRepositorySystem(VERSIONS);
+		generate(reactor);
+		List<MavenProject> projects = readProjects();
+		AggregateVersionRange mojo = newMojo(new AggregateVersionRange(), projects.get(0), projects, newSession());
+		setField(mojo, "rewriteThreads", 4);
+		mojo.execute();
+
+		assertEquals(serial, readPoms());
+		assertEquals(reactor.getExpectedRewrites(), mojo.report.getRewrittenVersions() + mojo.report.getRewrittenProperties());
+		assertEquals(40, repoSystem.getRangeRequests());
+	}
+
+	@Test
+	public void inheritedPropertiesAreUpdatedInTheParent() throws Exception {
+		SyntheticReactor reactor = new SyntheticReactor(2, 20, 10, 2);
+		generate(reactor);
+		inheritProperties();
+		Map<String, String> original = readPoms();
+
+		List<ExecutionReportView> reports = runSerially(newSession());
+
+		assertEquals(expected(original), readPoms());
+		// the parent updates the property of its dependency, the module finds it updated
+		assertEquals(reactor.getExpectedRewrites(), sumRewritten(reports));
+	}
+
+	@Test
+	public void aggregateUpdatesInheritedPropertiesOnce() throws Exception {
+		SyntheticReactor reactor = new SyntheticReactor(2, 20, 10, 2);
+		generate(reactor);
+		inheritProperties();
+		Map<String, String> original = readPoms();
+
+		List<MavenProject> projects = readProjects();
+		AggregateVersionRange mojo = newMojo(new AggregateVersionRange(), projects.get(0), projects, newSession());
+		mojo.execute();
+
+		assertEquals(expected(original), readPoms());
+		// the plan of the module finds the property already updated in the transformed parent
+		assertEquals(reactor.getExpectedRewrites(), mojo.report.getRewrittenVersions() + mojo.report.getRewrittenProperties());
+	}
+
+	@Test
+	public void undefinedPropertyFails() throws Exception {
+		generate(new SyntheticReactor(2, 20, 10, 2));
+		List<MavenProject> projects = readProjects();
+		// defined on the command line, say
+		edit("module-0/pom.xml", "\t\t<lib-0.version>1.0.0</lib-0.version>\n", "");
+		try {
+			newMojo(new VersionRange(), projects.get(1), projects, newSession()).execute();
+			fail();
+		} catch (MojoExecutionException e) {
+			assertEquals("The version could not be updated: ${lib-0.version}", e.getMessage());
+		}
+	}
+
+	@Test
+	public void propertyDefinedOutsideTheReactorFails() throws Exception {
+		generate(new SyntheticReactor(2, 20, 10, 2));
+		inheritProperties();
+		List<MavenProject> projects = readProjects();
+		try {
+			newMojo(new VersionRange(), projects.get(1), projects.subList(1, projects.size()), newSession()).execute();
+			fail();
+		} catch (MojoExecutionException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("The version could not be updated: ${lib-0.version}"));
+			assertTrue(e.getMessage(), e.getMessage().endsWith("is defined in org.kloeckner.scale:reactor:pom:1.0.0-SNAPSHOT, which is not part of the reactor"));
+		}
+	}
+
+	/**
+	 * Locks the rules of the given artifacts to <code>1.0.2</code>.
+	 */
+	void writeLockFile(int from, int to) throws IOException {
+		LockFile lock = new LockFile(new File(rulesDir, "version-range-maven-plugin.lock"));
+		for (int i = from; i < to; i++) {
+			lock.put(SyntheticReactor.GROUP_ID + ".g" + (i % 20) + ":lib-" + i + ":[1.0.0,2.0.0)", "1.0.2", "central", 0);
+		}
+		lock.write();
+	}
+
+	List<ExecutionReportView> runFrozen() throws Exception {
+		List<MavenProject> projects = readProjects();
+		List<ExecutionReportView> reports = new ArrayList<ExecutionReportView>();
+		RepositorySystemSession session = newSession();
+		for (MavenProject project : projects) {
+			VersionRange mojo = newMojo(new VersionRange(), project, projects, session);
+			setField(mojo, "frozen", true);
+			mojo.execute();
+			reports.add(new ExecutionReportView(mojo));
+		}
+		return reports;
+	}
+
+	@Test
+	public void frozenTakesTheLockedVersions() throws Exception {
+		SyntheticReactor reactor = new SyntheticReactor(3, 40, 10, 2);
+		Map<String, String> original = generate(reactor);
+		writeLockFile(0, 40);
+
+		List<ExecutionReportView> reports = runFrozen();
+
+		Map<String, String> expected = new LinkedHashMap<String, String>();
+		for (Map.Entry<String, String> e : original.entrySet()) {
+			expected.put(e.getKey(), e.getValue().replace(">1.0.0<", ">1.0.2<"));
+		}
+		assertEquals(expected, readPoms());
+		assertEquals(reactor.getExpectedRewrites(), sumRewritten(reports));
+		assertEquals(0, repoSystem.getRangeRequests());
+	}
+
+	@Test
+	public void frozenFailsForEveryRuleMissingInTheLockFile() throws Exception {
+		// the modules declare the artifacts 0 to 29 only
+		Map<String, String> original = generate(new SyntheticReactor(3, 40, 10, 2));
+		writeLockFile(0, 37);
+		try {
+			runFrozen();
+			fail();
+		} catch (MojoExecutionException e) {
+			String prefix = SyntheticReactor.GROUP_ID + ".g";
+			assertEquals("lockfile " + new File(rulesDir, "version-range-maven-plugin.lock") + " has no entry for the rules [" + prefix
+					+ "17:lib-37:[1.0.0,2.0.0), " + prefix + "18:lib-38:[1.0.0,2.0.0), " + prefix + "19:lib-39:[1.0.0,2.0.0)]"
+					+ ", run without frozen mode to update it", e.getMessage());
+		}
+		assertEquals(original, readPoms());
+		assertEquals(0, repoSystem.getRangeRequests());
+	}
+
+	@Test
+	public void frozenFailsBeforeAnyPomIsRewritten() throws Exception {
+		Map<String, String> original = generate(new SyntheticReactor(3, 40, 10, 2));
+		// the last module declares the artifacts 20 to 29
+		writeLockFile(0, 25);
+		try {
+			runFrozen();
+			fail();
+		} catch (MojoExecutionException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains(":lib-25:"));
+			assertTrue(e.getMessage(), e.getMessage().contains(":lib-39:"));
+		}
+		assertEquals(original, readPoms());
+	}
+
+	@Test
+	public void artifactIdDefinedInTheParent() throws Exception {
+		generate(new SyntheticReactor(2, 20, 1, 2));
+		edit("module-0/pom.xml", "<artifactId>lib-0</artifactId>", "<artifactId>${shared.lib}</artifactId>");
+		edit("pom.xml", "\t<build>", "\t<properties>\n\t\t<shared.lib>lib-0</shared.lib>\n\t</properties>\n\t<build>");
+		Map<String, String> original = readPoms();
+
+		List<ExecutionReportView> reports = runSerially(newSession());
+
+		assertEquals(expected(original), readPoms());
+		assertFalse(reports.get(1).skipped);
+		assertEquals(1, reports.get(1).rewritten);
+	}
+
+	@Test
+	public void fetchEventsCoverTheConcurrentFetches() throws Exception {
+		generate(new SyntheticReactor(3, 30, 10, 2));
+		repoSystem.setDelay("central", 20);
+		List<MavenProject> projects = readProjects();
+		RepositorySystemSession session = newSession();
+		FlightRecording recording = new FlightRecording("Fetch", "Resolution");
+		for (MavenProject project : projects) {
+			VersionRange mojo = newMojo(new VersionRange(), project, projects, session);
+			setField(mojo, "resolutionThreads", 4);
+			mojo.execute();
+		}
+
+		int fetches = 0;
+		int resolutions = 0;
+		for (RecordedEvent event : recording.stop()) {
+			String type = event.getEventType().getName();
+			if (type.equals("org.kloeckner.versionrange.Fetch")) {
+				fetches++;
+				assertEquals("single", event.getString("mode"));
+				assertEquals(1, event.getInt("repositories"));
+				assertEquals(VERSIONS + " versions", event.getString("result"));
+				assertTrue(event.getDuration().toMillis() >= 20);
+			} else if (type.equals("org.kloeckner.versionrange.Resolution")) {
+				resolutions++;
+			}
+		}
+		assertEquals(30, fetches);
+		assertEquals(30, resolutions);
+	}
+}
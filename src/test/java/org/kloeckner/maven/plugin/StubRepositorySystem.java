@@ -0,0 +1,184 @@
+package org.kloeckner.maven.plugin;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.SyncContext;
+import org.eclipse.aether.collection.CollectRequest;
+import org.eclipse.aether.collection.CollectResult;
+import org.eclipse.aether.deployment.DeployRequest;
+import org.eclipse.aether.deployment.DeployResult;
+import org.eclipse.aether.installation.InstallRequest;
+import org.eclipse.aether.installation.InstallResult;
+import org.eclipse.aether.repository.LocalRepository;
+import org.eclipse.aether.repository.LocalRepositoryManager;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactDescriptorRequest;
+import org.eclipse.aether.resolution.ArtifactDescriptorResult;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.eclipse.aether.resolution.DependencyRequest;
+import org.eclipse.aether.resolution.DependencyResult;
+import org.eclipse.aether.resolution.MetadataRequest;
+import org.eclipse.aether.resolution.MetadataResult;
+import org.eclipse.aether.resolution.VersionRangeRequest;
+import org.eclipse.aether.resolution.VersionRangeResult;
+import org.eclipse.aether.resolution.VersionRequest;
+import org.eclipse.aether.resolution.VersionResult;
+import org.eclipse.aether.util.version.GenericVersionScheme;
+import org.eclipse.aether.version.InvalidVersionSpecificationException;
+import org.eclipse.aether.version.Version;
+import org.eclipse.aether.version.VersionConstraint;
+
+/**
+ * Answers version range requests from the same list of versions, without any I/O. Only
+ * {@link #resolveVersionRange(RepositorySystemSession, VersionRangeRequest)} is supported.
+ * <p>
+ * Remote repositories can be given a delay. A request waits for the slowest repository it names, like Aether fetching
+ * their metadata in parallel would.
+ */
+public class StubRepositorySystem implements RepositorySystem {
+
+	private final GenericVersionScheme scheme = new GenericVersionScheme();
+
+	private final List<Version> versions = new ArrayList<Version>();
+
+	private final AtomicInteger rangeRequests = new AtomicInteger();
+
+	private final Map<String, Long> delays = new ConcurrentHashMap<String, Long>();
+
+	private final ConcurrentMap<String, AtomicInteger> repositoryRequests = new ConcurrentHashMap<String, AtomicInteger>();
+
+	/**
+	 * @param count number of versions, <code>1.0.0</code> to <code>1.0.&lt;count - 1&gt;</code>
+	 */
+	public StubRepositorySystem(int count) {
+		try {
+			for (int i = 0; i < count; i++) {
+				versions.add(scheme.parseVersion("1.0." + i));
+			}
+		} catch (InvalidVersionSpecificationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public int getRangeRequests() {
+		return rangeRequests.get();
+	}
+
+	/**
+	 * @return the number of requests naming the given repository.
+	 */
+	public int getRangeRequests(String repositoryId) {
+		AtomicInteger count = repositoryRequests.get(repositoryId);
+		return count == null ? 0 : count.get();
+	}
+
+	/**
+	 * Makes every request naming the given repository take at least the given time.
+	 */
+	public void setDelay(String repositoryId, long millis) {
+		delays.put(repositoryId, millis);
+	}
+
+	public VersionRangeResult resolveVersionRange(RepositorySystemSession session, VersionRangeRequest request) {
+		rangeRequests.incrementAndGet();
+		long delay = 0;
+		for (RemoteRepository repository : request.getRepositories()) {
+			AtomicInteger count = repositoryRequests.get(repository.getId());
+			if (count == null) {
+				repositoryRequests.putIfAbsent(repository.getId(), new AtomicInteger());
+				count = repositoryRequests.get(repository.getId());
+			}
+			count.incrementAndGet();
+			Long repositoryDelay = delays.get(repository.getId());
+			if (repositoryDelay != null) {
+				delay = Math.max(delay, repositoryDelay);
+			}
+		}
+		if (delay > 0) {
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		VersionRangeResult result = new VersionRangeResult(request);
+		try {
+			VersionConstraint constraint = scheme.parseVersionConstraint(request.getArtifact().getVersion());
+			for (Version version : versions) {
+				if (constraint.containsVersion(version)) {
+					result.addVersion(version);
+				}
+			}
+		} catch (InvalidVersionSpecificationException e) {
+			result.addException(e);
+		}
+		return result;
+	}
+
+	public VersionResult resolveVersion(RepositorySystemSession session, VersionRequest request) {
+		throw new UnsupportedOperationException();
+	}
+
+	public ArtifactDescriptorResult readArtifactDescriptor(RepositorySystemSession session, ArtifactDescriptorRequest request) {
+		throw new UnsupportedOperationException();
+	}
+
+	public CollectResult collectDependencies(RepositorySystemSession session, CollectRequest request) {
+		throw new UnsupportedOperationException();
+	}
+
+	public DependencyResult resolveDependencies(RepositorySystemSession session, DependencyRequest request) {
+		throw new UnsupportedOperationException();
+	}
+
+	public ArtifactResult resolveArtifact(RepositorySystemSession session, ArtifactRequest request) {
+		throw new UnsupportedOperationException();
+	}
+
+	public List<ArtifactResult> resolveArtifacts(RepositorySystemSession session, Collection<? extends ArtifactRequest> requests) {
+		throw new UnsupportedOperationException();
+	}
+
+	public List<MetadataResult> resolveMetadata(RepositorySystemSession session, Collection<? extends MetadataRequest> requests) {
+		throw new UnsupportedOperationException();
+	}
+
+	public InstallResult install(RepositorySystemSession session, InstallRequest request) {
+		throw new UnsupportedOperationException();
+	}
+
+	public DeployResult deploy(RepositorySystemSession session, DeployRequest request) {
+		throw new UnsupportedOperationException();
+	}
+
+	public LocalRepositoryManager newLocalRepositoryManager(RepositorySystemSession session, LocalRepository localRepository) {
+		throw new UnsupportedOperationException();
+	}
+
+	public SyncContext newSyncContext(RepositorySystemSession session, boolean shared) {
+		throw new UnsupportedOperationException();
+	}
+}
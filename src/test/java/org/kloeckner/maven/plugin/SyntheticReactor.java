@@ -0,0 +1,226 @@
+package org.kloeckner.maven.plugin;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Generates a reactor of modules declaring dependencies on synthetic artifacts, a file based remote repository with
+ * the metadata of those artifacts and a rules file with a rule for each of them. Reactors generated with the same
+ * arguments are identical.
+ * <p>
+ * Artifact <code>i</code> is <code>org.kloeckner.scale.g&lt;i % 20&gt;:lib-&lt;i&gt;</code>, available in the versions
+ * <code>1.0.0</code> to <code>1.&lt;versions - 1&gt;.0</code> and <code>2.0.0</code>, and its rule is
+ * <code>[1.0.0,2.0.0)</code>. Module <code>m</code> declares the artifacts following <code>m * dependencies</code>,
+ * all in version <code>1.0.0</code> and every third one through a property of the module, so the plugin rewrites each
+ * dependency exactly once.
+ */
+public class SyntheticReactor {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	static final String GROUP_ID = "org.kloeckner.scale";
+
+	private static final int GROUPS = 20;
+
+	private final int modules;
+
+	private final int artifacts;
+
+	private final int dependencies;
+
+	private final int versions;
+
+	public SyntheticReactor(int modules, int artifacts, int dependencies, int versions) {
+		if (modules < 1 || versions < 1 || dependencies < 1 || dependencies > artifacts) {
+			throw new IllegalArgumentException("expected at least one module and version and 1 to " + artifacts + " dependencies per module");
+		}
+		this.modules = modules;
+		this.artifacts = artifacts;
+		this.dependencies = dependencies;
+		this.versions = versions;
+	}
+
+	private static String groupId(int i) {
+		return GROUP_ID + ".g" + (i % GROUPS);
+	}
+
+	/**
+	 * @return the version every rule resolves to.
+	 */
+	public String getLatestVersion() {
+		return "1." + (versions - 1) + ".0";
+	}
+
+	/**
+	 * @return the number of versions and properties the plugin has to rewrite in the whole reactor.
+	 */
+	public int getExpectedRewrites() {
+		return modules * dependencies;
+	}
+
+	/**
+	 * Writes <code>maven-metadata.xml</code> and its SHA-1 checksum for every artifact.
+	 */
+	public void writeRepository(File dir) throws IOException {
+		for (int i = 0; i < artifacts; i++) {
+			StringBuilder sb = new StringBuilder();
+			sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+			sb.append("<metadata>\n");
+			sb.append("  <groupId>").append(groupId(i)).append("</groupId>\n");
+			sb.append("  <artifactId>lib-").append(i).append("</artifactId>\n");
+			sb.append("  <versioning>\n");
+			sb.append("    <latest>2.0.0</latest>\n");
+			sb.append("    <release>2.0.0</release>\n");
+			sb.append("    <versions>\n");
+			for (int v = 0; v < versions; v++) {
+				sb.append("      <version>1.").append(v).append(".0</version>\n");
+			}
+			sb.append("      <version>2.0.0</version>\n");
+			sb.append("    </versions>\n");
+			sb.append("    <lastUpdated>20260101000000</lastUpdated>\n");
+			sb.append("  </versioning>\n");
+			sb.append("</metadata>\n");
+
+			File artifactDir = new File(dir, groupId(i).replace('.', '/') + "/lib-" + i);
+			byte[] metadata = sb.toString().getBytes(UTF8);
+			write(new File(artifactDir, "maven-metadata.xml"), metadata);
+			write(new File(artifactDir, "maven-metadata.xml.sha1"), sha1(metadata).getBytes(UTF8));
+		}
+	}
+
+	/**
+	 * Writes the rules file.
+	 */
+	public void writeRules(File dir) throws IOException {
+		StringBuilder rules = new StringBuilder("#<groupId>:<artifactId>[:<extension>[:<classifier>]]:<version>\n");
+		for (int i = 0; i < artifacts; i++) {
+			rules.append(groupId(i)).append("\\:lib-").append(i).append("\\:[1.0.0,2.0.0)\n");
+		}
+		write(new File(dir, "version-range-maven-plugin.properties"), rules.toString().getBytes(UTF8));
+	}
+
+	/**
+	 * Writes the parent POM and the modules, using the rules file in the given directory. Both the repositories and the
+	 * plugin repositories of the reactor are replaced by the given repository, so Maven never contacts the network.
+	 */
+	public void writeReactor(File dir, File repository, File rulesDir, String pluginVersion) throws IOException {
+		String url = repository.getAbsoluteFile().toURI().toString();
+		StringBuilder sb = new StringBuilder();
+		sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		sb.append("<!-- generated for the scale harness -->\n");
+		appendProjectStart(sb);
+		sb.append("\t<groupId>").append(GROUP_ID).append("</groupId>\n");
+		sb.append("\t<artifactId>reactor</artifactId>\n");
+		sb.append("\t<version>1.0.0-SNAPSHOT</version>\n");
+		sb.append("\t<packaging>pom</packaging>\n");
+		sb.append("\t<modules>\n");
+		for (int m = 0; m < modules; m++) {
+			sb.append("\t\t<module>module-").append(m).append("</module>\n");
+		}
+		sb.append("\t</modules>\n");
+		for (String kind : new String[] { "repositor", "pluginRepositor" }) {
+			sb.append("\t<").append(kind).append("ies>\n");
+			sb.append("\t\t<").append(kind).append("y>\n");
+			sb.append("\t\t\t<id>central</id>\n");
+			sb.append("\t\t\t<url>").append(url).append("</url>\n");
+			sb.append("\t\t</").append(kind).append("y>\n");
+			sb.append("\t</").append(kind).append("ies>\n");
+		}
+		sb.append("\t<build>\n");
+		sb.append("\t\t<plugins>\n");
+		sb.append("\t\t\t<plugin>\n");
+		sb.append("\t\t\t\t<groupId>org.kloeckner.maven.plugin</groupId>\n");
+		sb.append("\t\t\t\t<artifactId>version-range-maven-plugin</artifactId>\n");
+		sb.append("\t\t\t\t<version>").append(pluginVersion).append("</version>\n");
+		sb.append("\t\t\t\t<configuration>\n");
+		sb.append("\t\t\t\t\t<dependencyVersionRangePath>").append(rulesDir.getAbsolutePath()).append("</dependencyVersionRangePath>\n");
+		sb.append("\t\t\t\t</configuration>\n");
+		sb.append("\t\t\t</plugin>\n");
+		sb.append("\t\t</plugins>\n");
+		sb.append("\t</build>\n");
+		sb.append("</project>\n");
+		write(new File(dir, "pom.xml"), sb.toString().getBytes(UTF8));
+
+		for (int m = 0; m < modules; m++) {
+			writeModule(new File(dir, "module-" + m), m);
+		}
+	}
+
+	private void writeModule(File dir, int m) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		appendProjectStart(sb);
+		sb.append("\t<parent>\n");
+		sb.append("\t\t<groupId>").append(GROUP_ID).append("</groupId>\n");
+		sb.append("\t\t<artifactId>reactor</artifactId>\n");
+		sb.append("\t\t<version>1.0.0-SNAPSHOT</version>\n");
+		sb.append("\t</parent>\n");
+		sb.append("\t<artifactId>module-").append(m).append("</artifactId>\n");
+		sb.append("\t<properties>\n");
+		for (int j = 0; j < dependencies; j += 3) {
+			int i = artifact(m, j);
+			sb.append("\t\t<lib-").append(i).append(".version>1.0.0</lib-").append(i).append(".version>\n");
+		}
+		sb.append("\t</properties>\n");
+		sb.append("\t<dependencies>\n");
+		for (int j = 0; j < dependencies; j++) {
+			int i = artifact(m, j);
+			sb.append("\t\t<dependency>\n");
+			sb.append("\t\t\t<groupId>").append(groupId(i)).append("</groupId>\n");
+			sb.append("\t\t\t<artifactId>lib-").append(i).append("</artifactId>\n");
+			sb.append("\t\t\t<version>").append(j % 3 == 0 ? "${lib-" + i + ".version}" : "1.0.0").append("</version>\n");
+			sb.append("\t\t</dependency>\n");
+		}
+		sb.append("\t</dependencies>\n");
+		sb.append("</project>\n");
+		write(new File(dir, "pom.xml"), sb.toString().getBytes(UTF8));
+	}
+
+	private int artifact(int module, int dependency) {
+		return (module * dependencies + dependency) % artifacts;
+	}
+
+	private static void appendProjectStart(StringBuilder sb) {
+		sb.append("<project xmlns=\"http://maven.apache.org/POM/4.0.0\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"");
+		sb.append(" xsi:schemaLocation=\"http://maven.apache.org/POM/4.0.0 http://maven.apache.org/maven-v4_0_0.xsd\">\n");
+		sb.append("\t<modelVersion>4.0.0</modelVersion>\n");
+	}
+
+	private static void write(File file, byte[] content) throws IOException {
+		File dir = file.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("unable to create directory " + dir);
+		}
+		Files.write(file.toPath(), content);
+	}
+
+	private static String sha1(byte[] content) {
+		try {
+			StringBuilder sb = new StringBuilder();
+			for (byte b : MessageDigest.getInstance("SHA-1").digest(content)) {
+				sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package org.kloeckner.maven.plugin.util;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class ArtifactPrefilterTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final ArtifactPrefilter prefilter = ArtifactPrefilter.forKeys(Arrays.asList("org.acme:lib", "org.acme:l\u00fcb"));
+
+	private boolean mightReference(String pom) {
+		return prefilter.mightReference(pom.getBytes(UTF8));
+	}
+
+	@Test
+	public void artifactIdAsElementText() throws Exception {
+		assertTrue(mightReference("<project><dependency><artifactId>lib</artifactId></dependency></project>"));
+		assertTrue(mightReference("<project><artifactId>\n\t\tlib\n\t</artifactId></project>"));
+		assertTrue(mightReference("<project><artifactId><!-- x -->lib</artifactId></project>"));
+		assertTrue(mightReference("<project><lib.id>lib</lib.id></project>"));
+		assertTrue(prefilter.mightReference("<project><artifactId>l\u00fcb</artifactId></project>".getBytes("ISO-8859-1")));
+	}
+
+	@Test
+	public void artifactIdWithinOtherTokens() throws Exception {
+		assertFalse(mightReference("<project><properties><lib.version>1.0</lib.version></properties></project>"));
+		assertFalse(mightReference("<project><libs><artifactId>lib-1</artifactId></libs></project>"));
+		assertFalse(mightReference("<project><artifactId>mylib</artifactId><version>${lib}</version></project>"));
+		assertFalse(mightReference("<project><name>lib and more</name></project>"));
+	}
+
+	@Test
+	public void hiddenArtifactIds() throws Exception {
+		assertTrue(mightReference("<project><artifactId>&#108;ib</artifactId></project>"));
+		assertTrue(mightReference("<project><artifactId><![CDATA[lib]]></artifactId></project>"));
+		assertTrue(prefilter.mightReference("<project/>".getBytes("UTF-16")));
+		assertTrue(mightReference("<project><artifactId>${shared.lib}</artifactId></project>"));
+		assertTrue(mightReference("<project><artifactId>\n\t\t${project.artifactId}-api\n\t</artifactId></project>"));
+		assertTrue(mightReference("<project><artifactId>api-${suffix} </artifactId></project>"));
+		assertFalse(mightReference("<project><version>${lib.version}</version></project>"));
+	}
+}
@@ -0,0 +1,244 @@
+package org.kloeckner.maven.plugin.util;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import jdk.jfr.consumer.RecordedEvent;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.kloeckner.maven.plugin.FlightRecording;
+import org.kloeckner.maven.plugin.StubRepositorySystem;
+
+public class HedgedVersionResolverTest {
+
+	private static final long DEADLINE = 200;
+
+	private static final long TIMEOUT = 5000;
+
+	private final RemoteRepository fast = repository("fast");
+
+	private final RemoteRepository other = repository("other");
+
+	private final RemoteRepository slow = repository("slow");
+
+	private final StubRepositorySystem repoSystem = new StubRepositorySystem(5);
+
+	private final RepositoryLatencies latencies = new RepositoryLatencies();
+
+	private ExecutorService executor;
+
+	@Before
+	public void createExecutor() {
+		executor = Executors.newCachedThreadPool();
+	}
+
+	@After
+	public void shutdownExecutor() {
+		executor.shutdownNow();
+	}
+
+	private static RemoteRepository repository(String id) {
+		return new RemoteRepository.Builder(id, "default", "http://" + id + ".example.org/").build();
+	}
+
+	private HedgedVersionResolver resolver(long probeIntervalMillis) {
+		return new HedgedVersionResolver(repoSystem, null, executor, latencies, null, probeIntervalMillis);
+	}
+
+	private static DefaultArtifact artifact(String range) {
+		return new DefaultArtifact("org.acme:lib:" + range);
+	}
+
+	@Test
+	public void waitsForAllRepositories() throws Exception {
+		repoSystem.setDelay("other", 50);
+		HedgedVersionResolver.Result result = resolver(TIMEOUT).resolve(artifact("[1.0.1,1.0.3]"), Arrays.asList(fast, other), 0, DEADLINE,
+				TIMEOUT);
+		assertEquals(Arrays.asList("1.0.1", "1.0.2", "1.0.3"), result.getVersions());
+		assertEquals(Arrays.asList("fast", "other"), result.getAnswered());
+		assertTrue(result.isComplete());
+		assertEquals(1, repoSystem.getRangeRequests("fast"));
+		assertEquals(1, repoSystem.getRangeRequests("other"));
+		assertTrue(latencies.getEstimate(other) >= 50);
+	}
+
+	@Test
+	public void takesTheAnswersSoFarAtTheDeadline() throws Exception {
+		repoSystem.setDelay("slow", 2000);
+		long start = System.currentTimeMillis();
+		HedgedVersionResolver.Result result = resolver(TIMEOUT).resolve(artifact("[1.0,)"), Arrays.asList(fast, slow), 0, DEADLINE, TIMEOUT);
+		assertTrue(System.currentTimeMillis() - start < 2000);
+		assertEquals(Arrays.asList("fast"), result.getAnswered());
+		assertEquals(Arrays.asList("slow"), result.getMissing());
+		assertFalse(result.isComplete());
+		assertEquals(5, result.getVersions().size());
+		// the abandoned request counts as slow
+		assertTrue(latencies.getEstimate(slow) >= DEADLINE);
+	}
+
+	@Test
+	public void skipsRepositoriesSlowerThanTheDeadline() throws Exception {
+		latencies.record(fast, 10);
+		latencies.record(slow, 10 * DEADLINE);
+		HedgedVersionResolver resolver = resolver(TIMEOUT);
+		for (int i = 0; i < 10; i++) {
+			HedgedVersionResolver.Result result = resolver.resolve(artifact("[1.0,)"), Arrays.asList(slow, fast), 1, DEADLINE, TIMEOUT);
+			assertEquals(Arrays.asList("fast"), result.getAnswered());
+			assertEquals(Arrays.asList("slow"), result.getMissing());
+		}
+		assertEquals(10, repoSystem.getRangeRequests("fast"));
+		assertEquals(0, repoSystem.getRangeRequests("slow"));
+	}
+
+	@Test
+	public void asksSlowRepositoriesWithoutQuorum() throws Exception {
+		latencies.record(slow, 10 * DEADLINE);
+		HedgedVersionResolver.Result result = resolver(TIMEOUT).resolve(artifact("[1.0,)"), Arrays.asList(slow, fast), 0, DEADLINE, TIMEOUT);
+		assertEquals(2, result.getAnswered().size());
+		assertTrue(result.isComplete());
+		assertEquals(1, repoSystem.getRangeRequests("slow"));
+	}
+
+	@Test
+	public void probesSkippedRepositoriesAgain() throws Exception {
+		latencies.record(fast, 10);
+		latencies.record(slow, 10 * DEADLINE);
+		HedgedVersionResolver resolver = resolver(0);
+		// the repository recovered, the probes find out without being waited for
+		long start = System.currentTimeMillis();
+		while (latencies.getEstimate(slow) > DEADLINE) {
+			assertTrue("estimate did not recover", System.currentTimeMillis() - start < TIMEOUT);
+			HedgedVersionResolver.Result result = resolver.resolve(artifact("[1.0,)"), Arrays.asList(slow, fast), 1, DEADLINE, TIMEOUT);
+			assertEquals(Arrays.asList("fast"), result.getAnswered());
+			Thread.sleep(20);
+		}
+		assertTrue(repoSystem.getRangeRequests("slow") > 0);
+
+		// asked again, it answers first
+		repoSystem.setDelay("fast", DEADLINE / 2);
+		HedgedVersionResolver.Result result = resolver.resolve(artifact("[1.0,)"), Arrays.asList(slow, fast), 1, DEADLINE, TIMEOUT);
+		assertEquals(Arrays.asList("slow"), result.getAnswered());
+	}
+
+	@Test
+	public void probesOncePerInterval() throws Exception {
+		latencies.record(fast, 10);
+		latencies.record(slow, 10 * DEADLINE);
+		assertTrue(latencies.claimProbe(slow, 0));
+		HedgedVersionResolver resolver = resolver(TIMEOUT);
+		for (int i = 0; i < 10; i++) {
+			resolver.resolve(artifact("[1.0,)"), Arrays.asList(slow, fast), 1, DEADLINE, TIMEOUT);
+		}
+		assertEquals(0, repoSystem.getRangeRequests("slow"));
+		assertFalse(latencies.claimProbe(slow, TIMEOUT));
+	}
+
+	@Test
+	public void sharesTheExecutor() throws Exception {
+		ThreadPoolExecutor shared = (ThreadPoolExecutor) executor;
+		HedgedVersionResolver resolver = resolver(TIMEOUT);
+		for (int i = 0; i < 50; i++) {
+			resolver.resolve(artifact("[1.0,)"), Arrays.asList(fast, other), 0, DEADLINE, TIMEOUT);
+		}
+		assertFalse(executor.isShutdown());
+		long start = System.currentTimeMillis();
+		while (shared.getCompletedTaskCount() < 100) {
+			assertTrue(System.currentTimeMillis() - start < TIMEOUT);
+			Thread.sleep(10);
+		}
+		assertEquals(100, shared.getTaskCount());
+		// idle threads are reused instead of creating a pool per artifact
+		assertTrue(shared.getLargestPoolSize() < 20);
+	}
+
+	@Test
+	public void cancelsTheRequestsNotWaitedFor() throws Exception {
+		repoSystem.setDelay("slow", 10 * TIMEOUT);
+		resolver(TIMEOUT).resolve(artifact("[1.0,)"), Arrays.asList(fast, slow), 0, DEADLINE, TIMEOUT);
+		ThreadPoolExecutor shared = (ThreadPoolExecutor) executor;
+		long start = System.currentTimeMillis();
+		while (shared.getActiveCount() > 0) {
+			assertTrue("request not cancelled", System.currentTimeMillis() - start < TIMEOUT);
+			Thread.sleep(10);
+		}
+	}
+
+	@Test
+	public void failsWithoutAnswer() throws Exception {
+		repoSystem.setDelay("slow", 2000);
+		List<RemoteRepository> repositories = Collections.singletonList(slow);
+		try {
+			resolver(TIMEOUT).resolve(artifact("[1.0,)"), repositories, 0, DEADLINE, 100);
+			fail();
+		} catch (MojoExecutionException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("timed out resolving versions for: org.acme:lib"));
+		}
+	}
+
+	@Test
+	public void failsWithTheFailureOfTheRepository() throws Exception {
+		try {
+			resolver(TIMEOUT).resolve(artifact("[1.0,"), Arrays.asList(fast, other), 0, DEADLINE, TIMEOUT);
+			fail();
+		} catch (MojoExecutionException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("unable to resolve versions for: org.acme:lib"));
+		}
+	}
+
+	@Test
+	public void fetchEventsCountTheRepositoriesAsked() throws Exception {
+		latencies.record(fast, 10);
+		latencies.record(other, 10);
+		latencies.record(slow, 10 * DEADLINE);
+		FlightRecording recording = new FlightRecording("Fetch");
+		resolver(0).resolve(artifact("[1.0,)"), Arrays.asList(slow, fast, other), 1, DEADLINE, TIMEOUT);
+		ThreadPoolExecutor shared = (ThreadPoolExecutor) executor;
+		long start = System.currentTimeMillis();
+		// the two requests waited for or cancelled and the probe
+		while (shared.getCompletedTaskCount() < 3) {
+			assertTrue(System.currentTimeMillis() - start < TIMEOUT);
+			Thread.sleep(10);
+		}
+		Map<String, RecordedEvent> events = new HashMap<String, RecordedEvent>();
+		for (RecordedEvent event : recording.stop()) {
+			if (event.getEventType().getName().equals("org.kloeckner.versionrange.Fetch")) {
+				events.put(event.getString("mode"), event);
+			}
+		}
+		assertEquals(2, events.size());
+		assertEquals("org.acme:lib", events.get("hedged").getString("artifact"));
+		assertEquals(2, events.get("hedged").getInt("repositories"));
+		assertEquals("5 versions", events.get("hedged").getString("result"));
+		assertEquals(1, events.get("probe").getInt("repositories"));
+	}
+}
@@ -0,0 +1,167 @@
+package org.kloeckner.maven.plugin.util;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LocalRepositoryIndexTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File repository;
+
+	private File indexFile;
+
+	@Before
+	public void createRepository() throws IOException {
+		repository = folder.newFolder("repository");
+		indexFile = new File(folder.getRoot(), "index/local.idx");
+		addVersion("org.acme", "lib", "1.0");
+		addVersion("org.acme", "lib", "1.1");
+		addMetadata("org.acme", "lib", "maven-metadata-central.xml", "1.0", "1.1", "2.0");
+		addVersion("org.acme.tools", "tool", "0.9");
+		addVersion("com.example", "app", "3.0");
+	}
+
+	private File artifactDir(String groupId, String artifactId) {
+		return new File(repository, groupId.replace('.', '/') + '/' + artifactId);
+	}
+
+	private void addVersion(String groupId, String artifactId, String version) throws IOException {
+		File dir = new File(artifactDir(groupId, artifactId), version);
+		assertTrue(dir.mkdirs());
+		write(new File(dir, artifactId + '-' + version + ".pom"), "<project/>");
+	}
+
+	private void addMetadata(String groupId, String artifactId, String name, String... versions) throws IOException {
+		StringBuilder sb = new StringBuilder("<metadata>\n  <versioning>\n    <versions>\n");
+		for (String version : versions) {
+			sb.append("      <version>").append(version).append("</version>\n");
+		}
+		sb.append("    </versions>\n  </versioning>\n</metadata>\n");
+		write(new File(artifactDir(groupId, artifactId), name), sb.toString());
+	}
+
+	private static void write(File file, String content) throws IOException {
+		Files.write(file.toPath(), content.getBytes(UTF8));
+	}
+
+	@Test
+	public void versionsFromMetadataAndVersionDirectories() throws Exception {
+		LocalRepositoryIndex index = new LocalRepositoryIndex(repository, indexFile);
+		assertEquals(3, index.refresh());
+		assertEquals(3, index.size());
+		assertEquals(Arrays.asList("1.0", "1.1", "2.0"), index.getVersions("org.acme", "lib"));
+		assertEquals(Arrays.asList("0.9"), index.getVersions("org.acme.tools", "tool"));
+		assertEquals(Arrays.asList("3.0"), index.getVersions("com.example", "app"));
+	}
+
+	@Test
+	public void unknownArtifacts() throws Exception {
+		LocalRepositoryIndex index = new LocalRepositoryIndex(repository, indexFile);
+		assertNull(index.getVersions("org.acme", "lib"));
+		index.refresh();
+		assertNull(index.getVersions("org.acme", "other"));
+		assertNull(index.getVersions("org", "acme"));
+		assertNull(index.getVersions("org.acme.lib", "1.0"));
+	}
+
+	@Test
+	public void hiddenDirectoriesAreSkipped() throws Exception {
+		File hidden = new File(repository, ".cache/org/hidden/1.0");
+		assertTrue(hidden.mkdirs());
+		write(new File(hidden, "hidden-1.0.pom"), "<project/>");
+		LocalRepositoryIndex index = new LocalRepositoryIndex(repository, indexFile);
+		index.refresh();
+		assertEquals(3, index.size());
+	}
+
+	@Test
+	public void metadataWithoutVersionDirectories() throws Exception {
+		File dir = artifactDir("org.remote", "only");
+		assertTrue(dir.mkdirs());
+		addMetadata("org.remote", "only", "maven-metadata-central.xml", "5.0");
+		LocalRepositoryIndex index = new LocalRepositoryIndex(repository, indexFile);
+		index.refresh();
+		assertEquals(Arrays.asList("5.0"), index.getVersions("org.remote", "only"));
+	}
+
+	@Test
+	public void openReadsTheIndexWithoutScanning() throws Exception {
+		new LocalRepositoryIndex(repository, indexFile).refresh();
+		LocalRepositoryIndex index = new LocalRepositoryIndex(new File(folder.getRoot(), "missing"), indexFile);
+		assertTrue(index.open());
+		assertEquals(3, index.size());
+		assertEquals(Arrays.asList("1.0", "1.1", "2.0"), index.getVersions("org.acme", "lib"));
+	}
+
+	@Test
+	public void openRejectsInvalidFiles() throws Exception {
+		LocalRepositoryIndex index = new LocalRepositoryIndex(repository, indexFile);
+		assertFalse(index.open());
+		assertTrue(indexFile.getParentFile().mkdirs());
+		write(indexFile, "not an index file");
+		assertFalse(index.open());
+		assertNull(index.getVersions("org.acme", "lib"));
+		// a refresh replaces the invalid file
+		index.refresh();
+		assertTrue(new LocalRepositoryIndex(repository, indexFile).open());
+	}
+
+	@Test
+	public void refreshRereadsOnlyChangedArtifacts() throws Exception {
+		LocalRepositoryIndex index = new LocalRepositoryIndex(repository, indexFile);
+		index.refresh();
+		assertEquals(0, index.refresh());
+
+		addVersion("org.acme", "lib", "1.2");
+		File dir = artifactDir("org.acme", "lib");
+		// the stamp must change even on file systems with a coarse resolution
+		assertTrue(dir.setLastModified(dir.lastModified() + 10000));
+		assertEquals(1, index.refresh());
+		assertEquals(Arrays.asList("1.0", "1.1", "1.2", "2.0"), index.getVersions("org.acme", "lib"));
+		assertEquals(Arrays.asList("3.0"), index.getVersions("com.example", "app"));
+	}
+
+	@Test
+	public void refreshDropsRemovedArtifacts() throws Exception {
+		LocalRepositoryIndex index = new LocalRepositoryIndex(repository, indexFile);
+		index.refresh();
+		File dir = artifactDir("com.example", "app");
+		assertTrue(new File(dir, "3.0/app-3.0.pom").delete());
+		assertTrue(new File(dir, "3.0").delete());
+		assertTrue(dir.delete());
+		index.refresh();
+		assertEquals(2, index.size());
+		assertNull(index.getVersions("com.example", "app"));
+	}
+}
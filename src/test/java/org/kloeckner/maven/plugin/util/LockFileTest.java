@@ -0,0 +1,129 @@
+package org.kloeckner.maven.plugin.util;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LockFileTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final String LIB = "org.acme:lib:[1.0,2.0)";
+
+	private static final String APP = "org.acme:app:[3.0,)";
+
+	private static final String TOOL = "org.acme:tool:1.5";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private LockFile read(File file) throws IOException {
+		LockFile lock = new LockFile(file);
+		lock.load();
+		return lock;
+	}
+
+	@Test
+	public void writeAndLoad() throws Exception {
+		File file = new File(folder.getRoot(), "rules.lock");
+		LockFile lock = new LockFile(file);
+		lock.put(LIB, "1.9", "central", 1500000000000L);
+		lock.put(TOOL, "1.5", null, 1500000001000L);
+		lock.write();
+
+		List<String> lines = Files.readAllLines(file.toPath(), UTF8);
+		assertEquals(3, lines.size());
+		assertEquals(LIB + "\t1.9\tcentral\t2017-07-14T02:40:00Z", lines.get(1));
+		assertEquals(TOOL + "\t1.5\t-\t2017-07-14T02:40:01Z", lines.get(2));
+
+		LockFile loaded = read(file);
+		assertEquals(2, loaded.size());
+		assertEquals("1.9", loaded.get(LIB).getVersion());
+		assertEquals("central", loaded.get(LIB).getSource());
+		assertEquals(1500000000000L, loaded.get(LIB).getTimestamp());
+		assertEquals("-", loaded.get(TOOL).getSource());
+	}
+
+	@Test
+	public void resolvedVersionsAreMergedIntoTheLoadedEntries() throws Exception {
+		File file = new File(folder.getRoot(), "rules.lock");
+		LockFile lock = new LockFile(file);
+		lock.put(LIB, "1.8", "central", 1500000000000L);
+		lock.put(APP, "3.2", "central", 1500000000000L);
+		lock.write();
+
+		// a build of the module using the library only
+		lock = read(file);
+		lock.put(LIB, "1.9", "central", 1600000000000L);
+		lock.write();
+
+		LockFile merged = read(file);
+		assertEquals(Arrays.asList(APP, LIB), Arrays.asList(merged.getRules().toArray()));
+		assertEquals("1.9", merged.get(LIB).getVersion());
+		assertEquals("3.2", merged.get(APP).getVersion());
+	}
+
+	@Test
+	public void removedEntriesAreNotWritten() throws Exception {
+		File file = new File(folder.getRoot(), "rules.lock");
+		LockFile lock = new LockFile(file);
+		lock.put(LIB, "1.8", "central", 1500000000000L);
+		lock.put(APP, "3.2", "central", 1500000000000L);
+		lock.remove(APP);
+		lock.write();
+		LockFile loaded = read(file);
+		assertEquals(1, loaded.size());
+		assertNull(loaded.get(APP));
+	}
+
+	@Test
+	public void commentsAndBlankLinesAreSkipped() throws Exception {
+		File file = folder.newFile("rules.lock");
+		Files.write(file.toPath(), ("# comment\n\n" + LIB + "\t1.9\tcentral\t2017-07-14T02:40:00Z\n").getBytes(UTF8));
+		assertEquals(1, read(file).size());
+	}
+
+	@Test
+	public void invalidLines() throws Exception {
+		File file = folder.newFile("rules.lock");
+		Files.write(file.toPath(), (LIB + "\t1.9\tcentral\n").getBytes(UTF8));
+		try {
+			read(file);
+			fail();
+		} catch (IOException e) {
+			assertEquals(file + ":1: expected 4 tab separated fields", e.getMessage());
+		}
+		Files.write(file.toPath(), (LIB + "\t1.9\tcentral\tyesterday\n").getBytes(UTF8));
+		try {
+			read(file);
+			fail();
+		} catch (IOException e) {
+			assertEquals(file + ":1: invalid timestamp yesterday", e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package org.kloeckner.maven.plugin.util;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+public class PomRewriterTest {
+
+	private static final String START = "<project>\n\t<version>";
+
+	private static final String END = "</version>\n</project>\n";
+
+	private static String rewrite(String value, String newValue) throws XMLStreamException {
+		PomRewriter pom = PomRewriter.parse(START + value + END);
+		pom.rewriteValue(pom.getRootElement().getChild("version"), newValue);
+		return pom.getContent();
+	}
+
+	@Test
+	public void plainValue() throws Exception {
+		assertEquals(START + "2.0" + END, rewrite("1.0", "2.0"));
+	}
+
+	@Test
+	public void keepsWhitespaceAroundTheValue() throws Exception {
+		assertEquals(START + "\n\t\t2.0\n\t" + END, rewrite("\n\t\t1.0\n\t", "2.0"));
+	}
+
+	@Test
+	public void commentBeforeTheValueMentioningIt() throws Exception {
+		assertEquals(START + "<!-- was 1.0 -->2.0" + END, rewrite("<!-- was 1.0 -->1.0", "2.0"));
+	}
+
+	@Test
+	public void commentAfterTheValueMentioningIt() throws Exception {
+		assertEquals(START + "2.0<!-- not 1.0 -->" + END, rewrite("1.0<!-- not 1.0 -->", "2.0"));
+	}
+
+	@Test
+	public void commentsOnBothSides() throws Exception {
+		assertEquals(START + "<!-- 1.0 --> 2.0 <!-- 1.0 -->" + END, rewrite("<!-- 1.0 --> 1.0 <!-- 1.0 -->", "2.0"));
+	}
+
+	@Test
+	public void cdataIsReplacedAsAWhole() throws Exception {
+		assertEquals(START + "<!-- 1.0 -->2.0" + END, rewrite("<!-- 1.0 --><![CDATA[1.0]]>", "2.0"));
+	}
+
+	@Test
+	public void entitiesAreReplacedWithTheValue() throws Exception {
+		assertEquals(START + "2.0" + END, rewrite("&#49;.0", "2.0"));
+		assertEquals(START + "a&amp;c" + END, rewrite("a&amp;b", "a&c"));
+	}
+
+	@Test
+	public void textMadeOfEntitiesAndCdata() throws Exception {
+		assertEquals(START + " <!-- x -->2.0 " + END, rewrite(" <!-- x -->1<![CDATA[.]]>&#48; ", "2.0"));
+	}
+
+	@Test
+	public void onlyCommentsInTheElement() throws Exception {
+		assertEquals(START + "<!-- none -->2.0" + END, rewrite("<!-- none -->", "2.0"));
+	}
+
+	@Test
+	public void emptyElementTag() throws Exception {
+		PomRewriter pom = PomRewriter.parse("<project><version/></project>");
+		pom.rewriteValue(pom.getRootElement().getChild("version"), "2.0");
+		assertEquals("<project><version>2.0</version></project>", pom.getContent());
+	}
+
+	@Test
+	public void sameValueIsNoChange() throws Exception {
+		PomRewriter pom = PomRewriter.parse(START + "<!-- was 0.9 -->1.0" + END);
+		pom.rewriteValue(pom.getRootElement().getChild("version"), "1.0");
+		assertFalse(pom.isModified());
+		pom.rewriteValue(pom.getRootElement().getChild("version"), "1.1");
+		assertTrue(pom.isModified());
+	}
+
+	@Test
+	public void valueIncludesPendingRewrites() throws Exception {
+		PomRewriter pom = PomRewriter.parse(START + " <!-- 0.9 --> 1.0 " + END);
+		PomElement version = pom.getRootElement().getChild("version");
+		assertEquals("1.0", pom.getValue(version));
+		pom.rewriteValue(version, "1.1");
+		assertEquals("1.1", pom.getValue(version));
+		assertEquals("1.0", version.getTextTrim());
+		pom.rewriteValue(version, "1.2");
+		assertEquals(START + " <!-- 0.9 --> 1.2 " + END, pom.getContent());
+	}
+}
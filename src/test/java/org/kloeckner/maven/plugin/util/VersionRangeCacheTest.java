@@ -0,0 +1,102 @@
+package org.kloeckner.maven.plugin.util;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class VersionRangeCacheTest {
+
+	private static final long TTL = 1000;
+
+	private static final List<String> VERSIONS = Arrays.asList("1.0", "1.1");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private VersionRangeCache reload(VersionRangeCache cache, long backoffMillis, long maxBackoffMillis)
+			throws Exception {
+		VersionRangeCache loaded = new VersionRangeCache(cache.getFile(), TTL, backoffMillis, maxBackoffMillis);
+		loaded.load();
+		return loaded;
+	}
+
+	@Test
+	public void saveDropsEntriesPastTheRetention() throws Exception {
+		VersionRangeCache cache = new VersionRangeCache(new File(folder.getRoot(), "cache.bin"), TTL, 60000, 60000);
+		long now = System.currentTimeMillis();
+		cache.put("fresh", new VersionRangeCache.Entry(now, VERSIONS));
+		cache.put("expired", new VersionRangeCache.Entry(now - 2 * TTL, VERSIONS));
+		cache.put("old", new VersionRangeCache.Entry(now - VersionRangeCache.RETENTION_TTLS * TTL - 1, VERSIONS));
+		cache.save();
+
+		VersionRangeCache loaded = reload(cache, 60000, 60000);
+		assertEquals(2, loaded.size());
+		assertNotNull(loaded.getFresh("fresh"));
+		assertEquals(VERSIONS, loaded.get("expired").getVersions());
+		assertNull(loaded.get("old"));
+	}
+
+	@Test
+	public void saveDropsFailuresWhoseBackoffIsLongOver() throws Exception {
+		VersionRangeCache cache = new VersionRangeCache(new File(folder.getRoot(), "cache.bin"), TTL, 1, 10);
+		cache.putFailure("failed", "unreachable");
+		cache.putFailure("failed", "unreachable");
+		Thread.sleep(50);
+		cache.save();
+		assertNull(reload(cache, 1, 10).getFailure("failed"));
+	}
+
+	@Test
+	public void saveKeepsFailuresInTheirBackoff() throws Exception {
+		VersionRangeCache cache = new VersionRangeCache(new File(folder.getRoot(), "cache.bin"), TTL, 60000, 3600000);
+		cache.putFailure("failed", "unreachable");
+		cache.putFailure("failed", "unreachable");
+		cache.save();
+
+		VersionRangeCache.Failure failure = reload(cache, 60000, 3600000).getFailure("failed");
+		assertEquals(2, failure.getCount());
+		assertEquals("unreachable", failure.getMessage());
+	}
+
+	@Test
+	public void pruningAloneRewritesTheFile() throws Exception {
+		File file = new File(folder.getRoot(), "cache.bin");
+		VersionRangeCache cache = new VersionRangeCache(file, 10 * TTL, 60000, 60000);
+		long now = System.currentTimeMillis();
+		cache.put("old", new VersionRangeCache.Entry(now - VersionRangeCache.RETENTION_TTLS * TTL - 1, VERSIONS));
+		cache.put("fresh", new VersionRangeCache.Entry(now, VERSIONS));
+		cache.save();
+
+		// the shorter TTL puts "old" past the retention without any other change
+		VersionRangeCache shorter = new VersionRangeCache(file, TTL, 60000, 60000);
+		shorter.load();
+		assertEquals(2, shorter.size());
+		shorter.save();
+
+		VersionRangeCache loaded = reload(shorter, 60000, 60000);
+		assertEquals(1, loaded.size());
+		assertNull(loaded.get("old"));
+	}
+}